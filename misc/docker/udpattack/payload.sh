@@ -3,6 +3,7 @@
 # Set the default values for the arguments
 DURATION=180
 OUTPUT_PATH=/data/capture  # Default base output file path without extension
+LIVE=false
 
 # Arguments manager
 while [[ $# -gt 0 ]]; do
@@ -17,11 +18,16 @@ while [[ $# -gt 0 ]]; do
             shift
             shift
             ;;
+        -l|--live)
+            LIVE=true
+            shift
+            ;;
         -h|--help)
             echo "Usage: $0 [options]"
             echo "Options:"
             echo "  -d, --duration <duration>  Duration of the capture (default: 180 seconds)"
             echo "  -o, --output <output>      Base output file path without extension (default: /data/capture)"
+            echo "  -l, --live                 Write the capture on the standard output instead of a file"
             echo "  -h, --help                 Show this help message"
             exit 0
             ;;
@@ -33,8 +39,14 @@ while [[ $# -gt 0 ]]; do
     esac
 done
 
-# Construct the full output file name by appending the .pcap extension
-PCAP_OUTPUT="${OUTPUT_PATH}.pcap"
+# Live capture: the standard output only carries the pcap stream
+if [ "$LIVE" = true ]; then
+    echo "Live capture on eth0 for $DURATION seconds" >&2
+    exec tshark -i eth0 -a duration:${DURATION} -q -l -w -
+fi
+
+# Construct the full output file name by appending the .pcapng extension
+PCAP_OUTPUT="${OUTPUT_PATH}.pcapng"
 
 # Show the arguments
 echo "Entrypoint arguments:"
@@ -47,11 +59,8 @@ echo ""
 echo "Creating output directory: $(dirname $PCAP_OUTPUT)"
 mkdir -p $(dirname $PCAP_OUTPUT)
 
-# Run Wireshark for the specified duration and save the traffic directly to a PCAP file
-tshark -i eth0 -a duration:${DURATION} -w ${OUTPUT_PATH}.pcapng
-
-# Convert pcap to pcapng format
-tcpdump -r ${OUTPUT_PATH}.pcapng -w ${PCAP_OUTPUT}
+# Run Wireshark for the specified duration and save the traffic directly to a PCAPNG file
+tshark -i eth0 -a duration:${DURATION} -w ${PCAP_OUTPUT}
 
 # Make the output file readable by all users
 chmod a+r $PCAP_OUTPUT
@@ -0,0 +1,17 @@
+package fr.contacgen;
+
+import java.net.InetAddress;
+
+/**
+ * Creates an attack run against a container.
+ */
+@FunctionalInterface
+public interface Attack {
+	/**
+	 * @param server the attacked address
+	 * @param seed the seed of the attack
+	 * @param index the index the attack records the flows it sends in, to label them
+	 * @return the attack, run once
+	 */
+	Runnable create(InetAddress server, long seed, AttackIndex index);
+}
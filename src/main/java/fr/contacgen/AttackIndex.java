@@ -0,0 +1,243 @@
+package fr.contacgen;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.DatagramSocket;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+
+/**
+ * Ground truth of a capture: the flows the attacks sent, by 5-tuple and time range.
+ * Attacks record their flows while they run, and every packet is then labelled by
+ * looking its 5-tuple up in both directions, so replies are labelled with their flow.
+ * ICMP errors are labelled by the packet they quote, fragments after the first one
+ * by their address pair since they carry no port.
+ * The flows live in an open addressing table of primitive keys copied on write:
+ * attacks add a handful of flows, while every packet reads the table without locking.
+ */
+public class AttackIndex {
+	public static final int ICMP = 1;
+	public static final int TCP = 6;
+	public static final int UDP = 17;
+
+	// Port of the flows recorded for any port
+	private static final int ANY_PORT = 0;
+	// Ports of the key matching the fragments of the flows of an address pair
+	private static final int FRAGMENTS = 0xFFFF;
+	// Packets this long before or after a flow still belong to it, in microseconds
+	private static final long SLACK = 2000000;
+
+	/**
+	 * A recorded flow, its time range in microseconds since the epoch.
+	 */
+	public static class Flow {
+		private final long start;
+		private volatile long end;
+
+		private Flow(long start, long end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		/**
+		 * Ends the flow now.
+		 */
+		public void close() {
+			end = now();
+		}
+
+		private boolean contains(long time) {
+			return time >= start - SLACK && time - SLACK <= end;
+		}
+	}
+
+	private static class Table {
+		private final long[] addresses, ports;
+		private final Flow[] flows;
+		private final int size;
+
+		private Table(int capacity, int size) {
+			this.addresses = new long[capacity];
+			this.ports = new long[capacity];
+			this.flows = new Flow[capacity];
+			this.size = size;
+		}
+	}
+
+	private volatile Table table = new Table(16, 0);
+
+	/**
+	 * Records a flow starting now, the attack closes it when it is done.
+	 * The source port can be left to 0 when the attack does not know it.
+	 *
+	 * @param protocol the IP protocol
+	 * @param source the attacker address
+	 * @param sourcePort the attacker port, 0 for any
+	 * @param destination the attacked address
+	 * @param destinationPort the attacked port
+	 * @return the flow, to close
+	 */
+	public Flow open(int protocol, InetAddress source, int sourcePort, InetAddress destination, int destinationPort) {
+		Flow flow = new Flow(now(), Long.MAX_VALUE);
+		add(protocol, ipv4(source), sourcePort, ipv4(destination), destinationPort, flow);
+		return flow;
+	}
+
+	/**
+	 * Records a flow over a known time range.
+	 *
+	 * @param protocol the IP protocol
+	 * @param source the raw IPv4 attacker address
+	 * @param sourcePort the attacker port, 0 for any
+	 * @param destination the raw IPv4 attacked address
+	 * @param destinationPort the attacked port
+	 * @param start the time of the first packet in microseconds since the epoch
+	 * @param end the time of the last packet in microseconds since the epoch
+	 */
+	public void add(int protocol, int source, int sourcePort, int destination, int destinationPort, long start, long end) {
+		add(protocol, source, sourcePort, destination, destinationPort, new Flow(start, end));
+	}
+
+	private synchronized void add(int protocol, int source, int sourcePort, int destination, int destinationPort, Flow flow) {
+		Table current = table;
+		int capacity = current.flows.length;
+		// Two keys per flow, kept at most half full
+		while((current.size + 2) * 2 > capacity)
+			capacity *= 2;
+		Table next = new Table(capacity, current.size + 2);
+		for(int i = 0; i < current.flows.length; i++)
+			if(current.flows[i] != null)
+				put(next, current.addresses[i], current.ports[i], current.flows[i]);
+		put(next, addresses(source, destination), ports(protocol, sourcePort, destinationPort), flow);
+		put(next, addresses(source, destination), ports(protocol, FRAGMENTS, FRAGMENTS), flow);
+		table = next;
+	}
+
+	/**
+	 * @return true if no flow was recorded, the packets are then labelled by {@link UDPDos#MAGIC}
+	 */
+	public boolean isEmpty() {
+		return table.size == 0;
+	}
+
+	/**
+	 * @param record an IP packet
+	 * @return true if the packet belongs to a recorded flow, in either direction
+	 */
+	public boolean isAttack(PcapRecord record) {
+		if(record.getVersion() != 4) return false;
+		int protocol = record.getProtocol();
+		int source = record.getSourceIPv4(), destination = record.getDestinationIPv4();
+		long time = record.getTimestamp();
+		if(!record.isFirstFragment())
+			return lookup(source, destination, protocol, FRAGMENTS, FRAGMENTS, time)
+					|| lookup(destination, source, protocol, FRAGMENTS, FRAGMENTS, time);
+		if(protocol == ICMP && isQuotingError(record))
+			return quotedAttack(record, time);
+		return matches(protocol, source, record.getSourcePort(), destination, record.getDestinationPort(), time);
+	}
+
+	private boolean matches(int protocol, int source, int sourcePort, int destination, int destinationPort, long time) {
+		return lookup(source, destination, protocol, sourcePort, destinationPort, time)
+				|| lookup(destination, source, protocol, destinationPort, sourcePort, time)
+				|| lookup(source, destination, protocol, ANY_PORT, destinationPort, time)
+				|| lookup(destination, source, protocol, ANY_PORT, sourcePort, time);
+	}
+
+	private boolean lookup(int source, int destination, int protocol, int sourcePort, int destinationPort, long time) {
+		Table current = table;
+		long addresses = addresses(source, destination), ports = ports(protocol, sourcePort, destinationPort);
+		int mask = current.flows.length - 1;
+		for(int slot = slot(addresses, ports, mask); current.flows[slot] != null; slot = (slot + 1) & mask) {
+			if(current.addresses[slot] == addresses && current.ports[slot] == ports && current.flows[slot].contains(time))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return true for destination unreachable and time exceeded, which quote the packet they answer
+	 */
+	private static boolean isQuotingError(PcapRecord record) {
+		int type = record.getPayloadByte(0) & 0xFF;
+		// ICMP header, quoted IPv4 header and ports
+		return (type == 3 || type == 11) && record.getPayloadLength() >= 8 + 20 + 4;
+	}
+
+	private boolean quotedAttack(PcapRecord record, long time) {
+		int quoted = 8;
+		int headerLength = (record.getPayloadByte(quoted) & 0xF) * 4;
+		if(headerLength < 20 || record.getPayloadLength() < quoted + headerLength + 4)
+			return false;
+		int protocol = record.getPayloadByte(quoted + 9) & 0xFF;
+		int source = payloadInt(record, quoted + 12), destination = payloadInt(record, quoted + 16);
+		int sourcePort = 0, destinationPort = 0;
+		if(protocol == TCP || protocol == UDP) {
+			sourcePort = payloadShort(record, quoted + headerLength);
+			destinationPort = payloadShort(record, quoted + headerLength + 2);
+		}
+		return matches(protocol, source, sourcePort, destination, destinationPort, time);
+	}
+
+	private static void put(Table table, long addresses, long ports, Flow flow) {
+		int mask = table.flows.length - 1;
+		int slot = slot(addresses, ports, mask);
+		while(table.flows[slot] != null)
+			slot = (slot + 1) & mask;
+		table.addresses[slot] = addresses;
+		table.ports[slot] = ports;
+		table.flows[slot] = flow;
+	}
+
+	private static int slot(long addresses, long ports, int mask) {
+		long hash = (addresses * 0x9E3779B97F4A7C15L) ^ (ports * 0xC2B2AE3D27D4EB4FL);
+		return (int) (hash ^ hash >>> 32) & mask;
+	}
+
+	private static long addresses(int source, int destination) {
+		return (long) source << 32 | destination & 0xFFFFFFFFL;
+	}
+
+	private static long ports(int protocol, int sourcePort, int destinationPort) {
+		return (long) protocol << 32 | (long) sourcePort << 16 | destinationPort;
+	}
+
+	private static int payloadShort(PcapRecord record, int index) {
+		return (record.getPayloadByte(index) & 0xFF) << 8 | record.getPayloadByte(index + 1) & 0xFF;
+	}
+
+	private static int payloadInt(PcapRecord record, int index) {
+		return payloadShort(record, index) << 16 | payloadShort(record, index + 2);
+	}
+
+	/**
+	 * @param address an IPv4 address
+	 * @return its raw value
+	 * @throws IllegalArgumentException for an IPv6 address
+	 */
+	public static int ipv4(InetAddress address) {
+		if(!(address instanceof Inet4Address))
+			throw new IllegalArgumentException("Only IPv4 flows can be recorded: " + address);
+		byte[] bytes = address.getAddress();
+		return (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | bytes[3] & 0xFF;
+	}
+
+	/**
+	 * Finds the address this host sends from to reach another one, without sending anything.
+	 *
+	 * @param destination the address to reach
+	 * @return the local address of the route
+	 */
+	public static InetAddress localAddress(InetAddress destination) {
+		try (DatagramSocket socket = new DatagramSocket()) {
+			socket.connect(destination, 9);
+			return socket.getLocalAddress();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static long now() {
+		return System.currentTimeMillis() * 1000;
+	}
+}
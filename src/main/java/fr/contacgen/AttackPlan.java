@@ -0,0 +1,263 @@
+package fr.contacgen;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The attacks run during one capture, each one starting at its own offset and
+ * optionally stopped after its own duration.
+ * Starts and stops are fired by a single timer thread shared by every capture,
+ * so they stay on time however many attacks run, and the attacks themselves
+ * run on a pool growing with them: attacks waiting for their start take no thread.
+ */
+public class AttackPlan {
+	// Spreads the seeds of the attacks of a plan, the first attack keeps the seed of the capture
+	private static final long SEED_STEP = 0x9E3779B97F4A7C15L;
+	private static ScheduledExecutorService timer = null;
+	private static ExecutorService attacks = null;
+
+	/**
+	 * One attack of the plan.
+	 */
+	public static class Entry {
+		private final String name;
+		private final Attack attack;
+		private final long start;
+		private final long duration;
+
+		/**
+		 * @param name the name of the attack
+		 * @param attack creates the attack given the container address and the seed
+		 * @param start the time from the start of the attacks in milliseconds
+		 * @param duration the time the attack is stopped after in milliseconds, 0 to let it finish
+		 */
+		public Entry(String name, Attack attack, long start, long duration) {
+			this.name = name;
+			this.attack = attack;
+			this.start = start;
+			this.duration = duration;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getStart() {
+			return start;
+		}
+
+		public long getDuration() {
+			return duration;
+		}
+	}
+
+	private final List<Entry> entries;
+
+	/**
+	 * @param entries the attacks of the plan
+	 */
+	public AttackPlan(List<Entry> entries) {
+		if(entries.isEmpty())
+			throw new IllegalArgumentException("At least one attack is needed.");
+		this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+	}
+
+	/**
+	 * Parses a comma separated list of attacks, each one written NAME[@START][+DURATION]
+	 * with the start and the duration in seconds, like udpdos@1+5,ssh.
+	 *
+	 * @param spec the attacks
+	 * @param registry the registry the names are looked up in
+	 * @return the plan
+	 * @throws IllegalArgumentException if an attack is unknown or malformed
+	 */
+	public static AttackPlan parse(String spec, AttackRegistry registry) {
+		List<Entry> entries = new ArrayList<>();
+		for(String part : spec.split(",")) {
+			String value = part.trim().toLowerCase(Locale.ROOT);
+			if(value.length() == 0) continue;
+			long duration = 0;
+			int plus = value.indexOf('+');
+			if(plus >= 0) {
+				duration = millis(value.substring(plus + 1), part);
+				value = value.substring(0, plus);
+			}
+			long start = 0;
+			int at = value.indexOf('@');
+			if(at >= 0) {
+				start = millis(value.substring(at + 1), part);
+				value = value.substring(0, at);
+			}
+			entries.add(new Entry(value, registry.get(value), start, duration));
+		}
+		return new AttackPlan(entries);
+	}
+
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * @param name the name of an attack
+	 * @return the first entry of the attack, or null if the plan does not run it
+	 */
+	public Entry getEntry(String name) {
+		for(Entry entry : entries)
+			if(entry.name.equalsIgnoreCase(name)) return entry;
+		return null;
+	}
+
+	/**
+	 * Gives the plan as the attack of a {@link DockerBackend}.
+	 *
+	 * @param server the attacked address
+	 * @param seed the seed of the first attack
+	 * @param index the index the attacks record their flows in
+	 * @return runs the plan on the address with the seed
+	 */
+	public Runnable attack(InetAddress server, long seed, AttackIndex index) {
+		return () -> run(server, seed, index);
+	}
+
+	/**
+	 * Schedules every attack of the plan and waits until they are all done or stopped.
+	 *
+	 * @param server the attacked address
+	 * @param seed the seed of the first attack, the next ones derive theirs from it
+	 * @param index the index the attacks record their flows in
+	 */
+	public void run(InetAddress server, long seed, AttackIndex index) {
+		ScheduledExecutorService timer = timer();
+		ExecutorService pool = attacks();
+		List<Running> running = new ArrayList<>();
+		List<Future<?>> timers = new ArrayList<>();
+		for(int i = 0; i < entries.size(); i++) {
+			Entry entry = entries.get(i);
+			Running attack = new Running(entry.attack.create(server, seed + i * SEED_STEP, index));
+			running.add(attack);
+			timers.add(timer.schedule(() -> pool.execute(attack), entry.start, TimeUnit.MILLISECONDS));
+			if(entry.duration > 0)
+				timers.add(timer.schedule(attack::stop, entry.start + entry.duration, TimeUnit.MILLISECONDS));
+		}
+		boolean interrupted = false;
+		for(int i = 0; i < running.size(); i++) {
+			Running attack = running.get(i);
+			// The capture is only stopped once every attack thread has returned
+			while(true) {
+				try {
+					attack.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+					for(Future<?> future : timers)
+						future.cancel(false);
+					for(Running other : running)
+						other.stop();
+				}
+			}
+			if(attack.failure != null)
+				System.out.println("Attack " + entries.get(i).name + " failed: " + attack.failure);
+			else if(attack.stopped)
+				System.out.println("Attack " + entries.get(i).name + " stopped after " + entries.get(i).duration + " ms");
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * An attack of the plan, which can be stopped before or while it runs and waited for until its thread returns.
+	 */
+	private static class Running implements Runnable {
+		private final Runnable attack;
+		private Thread thread = null;
+		private boolean stopped = false, finished = false;
+		private RuntimeException failure = null;
+
+		public Running(Runnable attack) {
+			this.attack = attack;
+		}
+
+		@Override
+		public void run() {
+			synchronized(this) {
+				if(finished) return;
+				thread = Thread.currentThread();
+			}
+			try {
+				attack.run();
+			} catch (RuntimeException e) {
+				failure = e;
+			} finally {
+				synchronized(this) {
+					thread = null;
+					finished = true;
+					// A stop coming right as the attack returns must not reach the next task of the pool thread
+					Thread.interrupted();
+					notifyAll();
+				}
+			}
+		}
+
+		/**
+		 * Interrupts the attack if it runs, or keeps it from starting.
+		 */
+		public synchronized void stop() {
+			if(finished) return;
+			stopped = true;
+			if(thread != null) {
+				thread.interrupt();
+			} else {
+				finished = true;
+				notifyAll();
+			}
+		}
+
+		public synchronized void await() throws InterruptedException {
+			while(!finished)
+				wait();
+		}
+	}
+
+	private static synchronized ScheduledExecutorService timer() {
+		if(timer == null) {
+			ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(1, (Runnable task) -> {
+				Thread thread = new Thread(task, "contacgen-attack-timer");
+				thread.setDaemon(true);
+				return thread;
+			});
+			pool.setRemoveOnCancelPolicy(true);
+			timer = pool;
+		}
+		return timer;
+	}
+
+	private static synchronized ExecutorService attacks() {
+		if(attacks == null) {
+			AtomicInteger count = new AtomicInteger();
+			attacks = Executors.newCachedThreadPool((Runnable task) -> {
+				Thread thread = new Thread(task, "contacgen-attack-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return attacks;
+	}
+
+	private static long millis(String seconds, String part) {
+		try {
+			return (long) (Double.parseDouble(seconds) * 1000);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Expected NAME[@START][+DURATION] in seconds, got '" + part + "'.");
+		}
+	}
+}
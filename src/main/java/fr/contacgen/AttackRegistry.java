@@ -0,0 +1,44 @@
+package fr.contacgen;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The attacks that can be run on a container, by name.
+ */
+public class AttackRegistry {
+	private final Map<String, Attack> attacks = new LinkedHashMap<>();
+
+	/**
+	 * Adds an attack, replacing the one registered under the same name.
+	 *
+	 * @param name the name of the attack, case insensitive
+	 * @param attack creates the attack given the container address, the seed and the index labelling its flows
+	 * @return this registry
+	 */
+	public AttackRegistry register(String name, Attack attack) {
+		attacks.put(name.toLowerCase(Locale.ROOT), attack);
+		return this;
+	}
+
+	/**
+	 * @param name the name of the attack, case insensitive
+	 * @return the factory of the attack
+	 * @throws IllegalArgumentException if no attack has this name
+	 */
+	public Attack get(String name) {
+		Attack attack = attacks.get(name.toLowerCase(Locale.ROOT));
+		if(attack == null)
+			throw new IllegalArgumentException("Unknown attack '" + name + "', available: " + String.join(", ", names()) + ".");
+		return attack;
+	}
+
+	/**
+	 * @return the names of the attacks, in registration order
+	 */
+	public Set<String> names() {
+		return attacks.keySet();
+	}
+}
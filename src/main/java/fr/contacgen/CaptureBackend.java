@@ -0,0 +1,18 @@
+package fr.contacgen;
+
+import java.io.IOException;
+
+/**
+ * Produces the packets of a data set.
+ */
+public interface CaptureBackend {
+	/**
+	 * Produces a capture and gives its packets to the handler.
+	 *
+	 * @param handler the handler receiving the packets
+	 * @param seed the seed of the attack
+	 * @throws InterruptedException if interrupted while capturing
+	 * @throws IOException if the capture cannot be taken or parsed
+	 */
+	void capture(ConTacGenPacketHandler handler, long seed) throws InterruptedException, IOException;
+}
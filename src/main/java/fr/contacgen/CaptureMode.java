@@ -0,0 +1,34 @@
+package fr.contacgen;
+
+/**
+ * How the capture gets from the container to the parser.
+ */
+public enum CaptureMode {
+	/** Copy the capture to a temporary file on the host, then parse it. */
+	FILE,
+	/** Parse the capture directly from the archive stream sent by docker. */
+	DIRECT,
+	/**
+	 * Parse the capture while it is taken, from the standard output of the capture command.
+	 * Needs an image whose payload.sh has the --live option, images without it capture to a file.
+	 */
+	LIVE;
+
+	/**
+	 * @param name the mode name, case insensitive
+	 * @return the capture mode
+	 * @throws IllegalArgumentException if there is no such mode
+	 */
+	public static CaptureMode parse(String name) {
+		for (CaptureMode mode : values()) {
+			if (mode.name().equalsIgnoreCase(name.trim()))
+				return mode;
+		}
+		throw new IllegalArgumentException("Unknown capture mode '" + name + "'.");
+	}
+
+	@Override
+	public String toString() {
+		return name().toLowerCase();
+	}
+}
@@ -3,32 +3,155 @@ package fr.contacgen;
 import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
-import io.pkts.PacketHandler;
-import io.pkts.packet.Packet;
-import io.pkts.protocol.Protocol;
+public class ConTacGenPacketHandler implements PcapReader.RecordHandler {
+	private final PacketTable data = new PacketTable();
+	private final PacketData cursor = new PacketData(data);
+	private Predicate<PacketData> sink = null;
+	private Instant startTime = Instant.now().minus(Duration.ofSeconds(5));
+	private GenerationMetrics metrics = new GenerationMetrics();
+
+	/**
+	 * Creates a handler whose timer starts a few seconds before now.
+	 */
+	public ConTacGenPacketHandler() {}
 
-public class ConTacGenPacketHandler implements PacketHandler {
-	private static final ConTacGenPacketHandler INSTANCE = new ConTacGenPacketHandler();
+	@Override
+	public boolean nextRecord(PcapRecord record) throws IOException {
+		if(!record.isIP()) {
+			metrics.nonIp();
+			return true;
+		}
+		// Update the timer
+		long timeDiffInMillis = record.getTimestamp() / 1000 - startTime.toEpochMilli();
+		int row = data.add(record, timeDiffInMillis);
+		metrics.packet(data.isAttack(row));
+		if(sink == null) return true;
 
-	public static final ConTacGenPacketHandler getInstance() {
-		return INSTANCE;
+		// Streamed rows are not kept
+		boolean next = sink.test(cursor.at(row));
+		data.clear();
+		return next;
 	}
 
-	private List<PacketData> data = new ArrayList<>();
-	private Instant startTime = Instant.now().minus(Duration.ofSeconds(5));
+	/**
+	 * Hands every parsed packet to the given sink instead of keeping it in memory.
+	 * Parsing stops as soon as the sink returns false.
+	 * 
+	 * @param sink the packet consumer, or null to go back to buffering packets
+	 * @return this handler
+	 */
+	public ConTacGenPacketHandler stream(Predicate<PacketData> sink) {
+		this.sink = sink;
+		return this;
+	}
 
-	private ConTacGenPacketHandler() {}
+	/**
+	 * Sets the time the timer of the packets counts from.
+	 * 
+	 * @param startTime the start time
+	 * @return this handler
+	 */
+	public ConTacGenPacketHandler startAt(Instant startTime) {
+		this.startTime = startTime;
+		return this;
+	}
 
-	@Override
-	public boolean nextPacket(Packet packet) throws IOException {
-		if(!packet.hasProtocol(Protocol.IPv4) && !packet.hasProtocol(Protocol.IPv6)) return true;
-		// Update the timer
-		long timeDiffInMillis = packet.getArrivalTime() / 1000 - startTime.toEpochMilli();
-		data.add(new PacketData(packet, timeDiffInMillis));
+	/**
+	 * Sets the metrics the parsed packets are counted in, shared with the forked handlers.
+	 * 
+	 * @param metrics the metrics of the generation
+	 * @return this handler
+	 */
+	public ConTacGenPacketHandler measure(GenerationMetrics metrics) {
+		this.metrics = metrics;
+		return this;
+	}
+
+	/**
+	 * Sets the flows the packets are labelled attacks by, instead of the payload magic.
+	 * 
+	 * @param index the flows of the attacks
+	 * @return this handler
+	 */
+	public ConTacGenPacketHandler labelWith(AttackIndex index) {
+		data.setLabels(index);
+		return this;
+	}
+
+	/**
+	 * @return the metrics the parsed packets are counted in
+	 */
+	public GenerationMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Sets how many payload bytes are kept for each packet.
+	 * 
+	 * @param encoding the encoding the payloads will be read with
+	 * @return this handler
+	 */
+	public ConTacGenPacketHandler keepPayloads(PayloadEncoding encoding) {
+		return keepPayloads(encoding.getLimit());
+	}
+
+	/**
+	 * Sets how many payload bytes are kept for each packet.
+	 * 
+	 * @param limit the number of bytes, 0 to drop payloads
+	 * @return this handler
+	 */
+	public ConTacGenPacketHandler keepPayloads(int limit) {
+		data.setPayloadLimit(limit);
+		return this;
+	}
+
+	/**
+	 * Creates a handler sharing the settings of this one but with its own table,
+	 * used to parse a chunk of a capture.
+	 * 
+	 * @return the new handler
+	 */
+	public ConTacGenPacketHandler fork() {
+		ConTacGenPacketHandler chunk = new ConTacGenPacketHandler();
+		chunk.startTime = startTime;
+		chunk.metrics = metrics;
+		chunk.data.setPayloadLimit(data.getPayloadLimit());
+		chunk.data.setLabels(data.getLabels());
+		return chunk;
+	}
+
+	/**
+	 * Same as {@link #fork()}, for a capture of its own whose timer starts at the given time.
+	 * 
+	 * @param startTime the time the timer counts from
+	 * @return the new handler
+	 */
+	public ConTacGenPacketHandler fork(Instant startTime) {
+		ConTacGenPacketHandler capture = fork();
+		capture.startTime = startTime;
+		return capture;
+	}
+
+	/**
+	 * Takes the packets parsed by a forked handler, in order.
+	 * When streaming they are handed to the sink instead of being kept.
+	 * 
+	 * @param chunk the forked handler
+	 * @return false if the sink asked to stop
+	 */
+	public boolean merge(ConTacGenPacketHandler chunk) {
+		if(sink == null) {
+			data.append(chunk.data);
+			return true;
+		}
+		for(int row = 0; row < chunk.data.size(); row++) {
+			if(!sink.test(chunk.cursor.at(row)))
+				return false;
+		}
 		return true;
 	}
 
@@ -38,7 +161,15 @@ public class ConTacGenPacketHandler implements PacketHandler {
 	}
 	
 	public ConTacGenPacketHandler foreach(Consumer<PacketData> action) {
-		data.forEach(action);
+		for(int row = 0; row < data.size(); row++)
+			action.accept(cursor.at(row));
 		return this;
 	}
+
+	/**
+	 * @return the table holding the buffered packets
+	 */
+	public PacketTable getTable() {
+		return data;
+	}
 }
@@ -1,11 +1,27 @@
 package fr.contacgen;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
@@ -17,19 +33,15 @@ import com.github.dockerjava.api.command.CreateContainerCmd;
 import com.github.dockerjava.api.command.ExecStartCmd;
 import com.github.dockerjava.api.command.PullImageResultCallback;
 import com.github.dockerjava.api.exception.NotFoundException;
-import com.github.dockerjava.api.model.Container;
 import com.github.dockerjava.api.model.ContainerNetwork;
 import com.github.dockerjava.api.model.Frame;
-import com.github.dockerjava.api.model.Image;
+import com.github.dockerjava.api.model.StreamType;
 import com.github.dockerjava.core.DefaultDockerClientConfig;
 import com.github.dockerjava.core.DockerClientConfig;
 import com.github.dockerjava.core.DockerClientImpl;
 import com.github.dockerjava.httpclient5.ApacheDockerHttpClient;
 import com.github.dockerjava.transport.DockerHttpClient;
 
-import io.pkts.PacketHandler;
-import io.pkts.framer.FramingException;
-
 public class ConTacGenUtils {
 
 	private ConTacGenUtils() {}
@@ -53,25 +65,24 @@ public class ConTacGenUtils {
 
 	/**
 	 * Check if a given Docker image exists locally.
+	 * The image is inspected directly instead of listing all of them.
 	 * 
 	 * @param dockerImage the docker image to run
 	 * @param dockerClient the Docker client
 	 */
 	public static boolean dockerImageExists(String dockerImage, DockerClient dockerClient) {
 		System.out.println("Check if image " + dockerImage + " exists localy");
-		List<Image> images = dockerClient.listImagesCmd().exec();
-		for (Image image : images) {
-			for (String repoTag : image.getRepoTags()) {
-				if (repoTag.equals(dockerImage)) {
-					return true;
-				}
-			}
+		try {
+			dockerClient.inspectImageCmd(dockerImage).exec();
+			return true;
+		} catch (NotFoundException e) {
+			return false;
 		}
-		return false;
 	}
 
 	/**
 	 * Check if a container exists.
+	 * The container is inspected directly instead of listing all of them.
 	 * 
 	 * @param containerName the name of the container
 	 * @param dockerClient the Docker client
@@ -79,13 +90,12 @@ public class ConTacGenUtils {
 	 */
 	public static boolean dockerContainerExists(String containerName, DockerClient dockerClient) {
 		System.out.println("Check if container " + containerName + " is already running");
-		List<Container> containers = dockerClient.listContainersCmd().withShowAll(true).exec();
-		for (Container container : containers) {
-			if (container.getNames()[0].equals("/" + containerName)) {
-				return true;
-			}
+		try {
+			dockerClient.inspectContainerCmd(containerName).exec();
+			return true;
+		} catch (NotFoundException e) {
+			return false;
 		}
-		return false;
 	}
 
 	/**
@@ -112,6 +122,18 @@ public class ConTacGenUtils {
 		dockerClient.killContainerCmd(containerName).exec();
 	}
 
+	/**
+	 * Restart the given container, killing its processes right away.
+	 * 
+	 * @param containerName the name of the container
+	 * @param dockerClient the Docker client
+	 */
+	public static void dockerRestart(String containerName, DockerClient dockerClient) {
+		// Restart container
+		System.out.println("Restart the container " + containerName);
+		dockerClient.restartContainerCmd(containerName).withTimeout(0).exec();
+	}
+
 	/**
 	 * Copy file from container
 	 * 
@@ -130,6 +152,32 @@ public class ConTacGenUtils {
 		}
 	}
 
+	/**
+	 * Parse a pcap file straight from the archive sent by docker, without writing it on the host.
+	 * 
+	 * @param containerName the name of the container
+	 * @param containerFile the path of the pcap file in the container
+	 * @param dockerClient the Docker client
+	 * @param callback the handler receiving every record of the capture
+	 * @return the size of the pcap file in bytes
+	 * @throws IOException if the archive cannot be read
+	 */
+	public static long dockerStream(String containerName, String containerFile,
+			DockerClient dockerClient, PcapReader.RecordHandler callback) throws IOException {
+		System.out.println("Stream file from container");
+		InputStream stream = dockerClient.copyArchiveFromContainerCmd(containerName, containerFile).exec();
+		try (TarArchiveInputStream tarStream = new TarArchiveInputStream(stream)) {
+			TarArchiveEntry tarEntry = null;
+			while ((tarEntry = tarStream.getNextTarEntry()) != null) {
+				if (tarEntry.isDirectory()) continue;
+
+				PcapReader.read(tarStream, callback);
+				return tarEntry.getSize();
+			}
+		}
+		return 0;
+	}
+
 	/**
 	 * docker Inspect IP address.
 	 * 
@@ -180,6 +228,80 @@ public class ConTacGenUtils {
 		return start.exec(handler);
 	}
 
+	/**
+	 * Exec a command in the container, sending its standard output to a stream.
+	 * The error output is still printed.
+	 *
+	 * @param command the command to execute
+	 * @param containerName the name of the container
+	 * @param dockerClient the Docker client
+	 * @param stdout the stream receiving the standard output, finished when the command ends
+	 * @return the callback of the command
+	 */
+	public static Adapter<Frame> dockerExec(String command, String containerName, DockerClient dockerClient,
+			FrameInputStream stdout) {
+		System.out.println("Execute " + command + " in the container");
+		String id = dockerClient.execCreateCmd(containerName)
+				.withAttachStdout(true)
+				.withAttachStderr(true)
+				.withCmd("bash", "-c", command)
+				.exec()
+				.getId();
+		ExecStartCmd start = dockerClient.execStartCmd(id);
+		Adapter<Frame> handler = new Adapter<Frame>() {
+			@Override
+			public void onNext(Frame object) {
+				super.onNext(object);
+				if(object.getStreamType() == StreamType.STDERR) {
+					System.out.println("Message from docker command: " + object);
+					return;
+				}
+				try {
+					stdout.offer(object.getPayload());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					stdout.close();
+				}
+			}
+
+			@Override
+			public void onError(Throwable throwable) {
+				stdout.finish();
+				super.onError(throwable);
+				throwable.printStackTrace();
+			}
+
+			@Override
+			public void onComplete() {
+				stdout.finish();
+				super.onComplete();
+			}
+		};
+		return start.exec(handler);
+	}
+
+	/**
+	 * Exec a command in the container and wait for it to end, its output is dropped.
+	 *
+	 * @param command the command to execute
+	 * @param containerName the name of the container
+	 * @param dockerClient the Docker client
+	 * @return the exit code of the command, or -1 if docker does not give it
+	 * @throws InterruptedException if interrupted while waiting for the command
+	 */
+	public static long dockerExecStatus(String command, String containerName, DockerClient dockerClient)
+			throws InterruptedException {
+		String id = dockerClient.execCreateCmd(containerName)
+				.withAttachStdout(true)
+				.withAttachStderr(true)
+				.withCmd("bash", "-c", command)
+				.exec()
+				.getId();
+		dockerClient.execStartCmd(id).exec(new Adapter<Frame>()).awaitCompletion();
+		Long exitCode = dockerClient.inspectExecCmd(id).exec().getExitCodeLong();
+		return exitCode != null ? exitCode : -1;
+	}
+
 	/**
 	 * Run a docker container.
 	 * 
@@ -249,12 +371,141 @@ public class ConTacGenUtils {
 	 * Parse network traffic from a pcap file.
 	 * 
 	 * @param pcapFile the pcap file to parse
+	 * @param callback the handler receiving every record of the capture
+	 * @throws IOException if the file cannot be read
 	 */
-	public static void readPcap(File pcapFile, PacketHandler callback) throws FramingException, IOException {
+	public static void readPcap(File pcapFile, PcapReader.RecordHandler callback) throws IOException {
 		System.out.println("Read pcap file: " + pcapFile + "");
 
-		io.pkts.Pcap pcap = io.pkts.Pcap.openStream(pcapFile);
-		pcap.loop(callback);
-		pcap.close();
+		PcapReader.read(pcapFile, callback);
+	}
+
+	/**
+	 * Parse network traffic from a pcap file with several threads.
+	 * Chunks of the capture are decoded concurrently then merged back in capture order,
+	 * so the handler ends up with the same packets as a sequential read. A streaming
+	 * handler gets the packets of each chunk as soon as it is merged, with only a
+	 * few chunks read ahead, and stops the read when its sink has enough.
+	 * 
+	 * @param pcapFile the pcap file to parse
+	 * @param handler the handler receiving the packets
+	 * @param parallelism the number of threads, 1 to read sequentially
+	 * @throws IOException if the file cannot be read
+	 */
+	public static void readPcap(File pcapFile, ConTacGenPacketHandler handler, int parallelism) throws IOException {
+		if(parallelism <= 1) {
+			readPcap(pcapFile, handler);
+			return;
+		}
+		System.out.println("Read pcap file: " + pcapFile + " with " + parallelism + " threads");
+
+		PcapReader.readChunks(pcapFile, parallelism, handler::fork, handler::merge);
+	}
+
+	/**
+	 * Find the capture files designated by a path.
+	 * 
+	 * @param path a capture file, a directory holding capture files or a glob pattern
+	 * @return the capture files, sorted by path
+	 * @throws IOException if no capture file is found
+	 */
+	public static List<File> findPcaps(String path) throws IOException {
+		List<File> pcapFiles = new ArrayList<>();
+		File file = new File(path);
+		if (file.isFile()) {
+			pcapFiles.add(file);
+		} else if (file.isDirectory()) {
+			File[] children = file.listFiles((File child) -> child.isFile() && isPcap(child.getName()));
+			for (File child : children)
+				pcapFiles.add(child);
+		} else {
+			// Glob pattern, walked from the last directory before the first wildcard
+			// and only as deep as the pattern goes, unless it crosses directories with **
+			int wildcard = 0;
+			while (wildcard < path.length() && "*?[{".indexOf(path.charAt(wildcard)) < 0)
+				wildcard++;
+			int separator = Math.max(path.lastIndexOf('/', wildcard), path.lastIndexOf(File.separatorChar, wildcard));
+			Path root = Paths.get(separator < 0 ? "" : path.substring(0, separator + 1));
+			PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + path);
+			int depth = 1;
+			for (int i = separator + 1; i < path.length(); i++) {
+				if (path.charAt(i) == '/' || path.charAt(i) == File.separatorChar)
+					depth++;
+			}
+			if (path.indexOf("**", separator + 1) >= 0)
+				depth = Integer.MAX_VALUE;
+			if (wildcard < path.length() && Files.isDirectory(root.toAbsolutePath())) {
+				try (Stream<Path> paths = Files.walk(root, depth)) {
+					paths.filter(Files::isRegularFile).filter(matcher::matches).forEach((Path p) -> pcapFiles.add(p.toFile()));
+				}
+			}
+		}
+		if (pcapFiles.isEmpty())
+			throw new FileNotFoundException("No capture file found for " + path);
+		pcapFiles.sort(null);
+		return pcapFiles;
+	}
+
+	private static boolean isPcap(String name) {
+		String lower = name.toLowerCase();
+		return lower.endsWith(".pcap") || lower.endsWith(".pcapng") || lower.endsWith(".cap");
+	}
+
+	/**
+	 * Parse network traffic from several capture files, without docker.
+	 * Files are parsed concurrently, each one with its timer starting at its first packet,
+	 * then merged in the given order. Only as many files as threads are parsed ahead
+	 * of the one being merged. A single file is split into chunks instead and handed
+	 * to the handler as they are read.
+	 * 
+	 * @param pcapFiles the capture files to parse
+	 * @param handler the handler receiving the packets
+	 * @param parallelism the number of threads
+	 * @throws IOException if a file cannot be read
+	 * @throws InterruptedException if interrupted while waiting for the files
+	 */
+	public static void readPcaps(List<File> pcapFiles, ConTacGenPacketHandler handler, int parallelism) throws IOException, InterruptedException {
+		if (pcapFiles.size() == 1) {
+			readPcap(pcapFiles.get(0), handler.startAt(captureStart(pcapFiles.get(0))), parallelism);
+			return;
+		}
+		System.out.println("Read " + pcapFiles.size() + " pcap files with " + parallelism + " threads");
+
+		int threads = Math.max(1, Math.min(parallelism, pcapFiles.size()));
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			Deque<Future<ConTacGenPacketHandler>> captures = new ArrayDeque<>();
+			int next = 0;
+			while (next < pcapFiles.size() || !captures.isEmpty()) {
+				while (next < pcapFiles.size() && captures.size() < threads) {
+					File pcapFile = pcapFiles.get(next++);
+					captures.add(pool.submit(() -> {
+						ConTacGenPacketHandler capture = handler.fork(captureStart(pcapFile));
+						readPcap(pcapFile, capture);
+						return capture;
+					}));
+				}
+				// Files still being parsed are dropped once the sink has enough packets
+				if(!handler.merge(captures.remove().get())) break;
+			}
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException("Could not read the pcap files", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return the time of the first record of a capture file
+	 */
+	private static Instant captureStart(File pcapFile) throws IOException {
+		long[] first = { 0 };
+		PcapReader.read(pcapFile, (PcapRecord record) -> {
+			first[0] = record.getTimestamp();
+			return false;
+		});
+		return Instant.EPOCH.plus(first[0], ChronoUnit.MICROS);
 	}
 }
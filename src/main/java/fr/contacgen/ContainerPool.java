@@ -0,0 +1,209 @@
+package fr.contacgen;
+
+import static fr.contacgen.ConTacGenUtils.dockerExec;
+import static fr.contacgen.ConTacGenUtils.dockerRestart;
+import static fr.contacgen.ConTacGenUtils.dockerRm;
+import static fr.contacgen.ConTacGenUtils.dockerRun;
+import static fr.contacgen.ConTacGenUtils.dockerStop;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.github.dockerjava.api.DockerClient;
+
+/**
+ * Containers of one image created and started ahead of time.
+ * A run leases a started container and releases it once its capture is out,
+ * the container is then restarted, which ends the processes the run left,
+ * cleaned up and kept for the next run while new ones are started in the
+ * background to keep the pool full.
+ * All the containers of the pool are removed when the JVM exits.
+ */
+public class ContainerPool {
+	private static final Map<String, ContainerPool> POOLS = new ConcurrentHashMap<>();
+
+	// Removes the files a run leaves in the container once it is restarted
+	private static final String RESET_COMMAND = "rm -rf /data/* /tmp/*";
+
+	private final String dockerImage;
+	private final DockerSession session;
+	private final DockerClient dockerClient;
+	private final BlockingQueue<String> ready = new LinkedBlockingQueue<>();
+	private final Set<String> containers = ConcurrentHashMap.newKeySet();
+	private final ExecutorService background;
+	// Guarded by the pool
+	private int size = 0, starting = 0;
+
+	/**
+	 * Gets the pool of an image, creating it the first time.
+	 *
+	 * @param dockerImage the docker image of the containers
+	 * @param size the number of started containers to keep ready
+	 * @return the pool of the image
+	 */
+	public static ContainerPool get(String dockerImage, int size) {
+		ContainerPool pool = POOLS.computeIfAbsent(dockerImage, ContainerPool::new);
+		pool.resize(size);
+		return pool;
+	}
+
+	private ContainerPool(String dockerImage) {
+		this.dockerImage = dockerImage;
+		this.session = DockerSession.shared();
+		this.dockerClient = session.getClient();
+		this.background = Executors.newSingleThreadExecutor((Runnable task) -> {
+			Thread thread = new Thread(task, "contacgen-pool");
+			thread.setDaemon(true);
+			return thread;
+		});
+		Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+	}
+
+	/**
+	 * Sets the number of started containers to keep ready.
+	 *
+	 * @param size the number of containers
+	 */
+	public synchronized void resize(int size) {
+		this.size = size;
+		replenish();
+	}
+
+	/**
+	 * Takes a started container out of the pool, starting one if none is ready.
+	 *
+	 * @return the name of the container
+	 */
+	public String lease() {
+		String container = ready.poll();
+		if(container == null) {
+			System.out.println("No container ready for " + dockerImage);
+			container = create();
+		}
+		replenish();
+		return container;
+	}
+
+	/**
+	 * Gives a leased container back, it is reset in the background.
+	 * Containers the pool has no room for are removed.
+	 *
+	 * @param container the name of the container
+	 */
+	public void release(String container) {
+		release(container, null);
+	}
+
+	/**
+	 * Same as {@link #release(String)}, adding the time the reset took to the teardown stage.
+	 *
+	 * @param container the name of the container
+	 * @param metrics the metrics of the run, or null
+	 */
+	public void release(String container, GenerationMetrics metrics) {
+		try {
+			background.execute(() -> {
+				long stage = System.nanoTime();
+				reset(container);
+				if(metrics != null)
+					metrics.stage(GenerationMetrics.TEARDOWN, stage);
+			});
+		} catch (RejectedExecutionException e) {
+			// Shutting down, the container is not reused
+			remove(container);
+		}
+	}
+
+	/**
+	 * Restarts a released container and keeps it if the reset worked, removes it otherwise.
+	 */
+	private void reset(String container) {
+		try {
+			dockerRestart(container, dockerClient);
+			dockerExec(RESET_COMMAND, container, dockerClient).awaitCompletion();
+			offer(container);
+			return;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+		remove(container);
+	}
+
+	/**
+	 * Keeps a started container ready if the pool has room for it, removes it otherwise.
+	 */
+	private void offer(String container) {
+		synchronized(this) {
+			if(ready.size() < size) {
+				ready.add(container);
+				return;
+			}
+		}
+		remove(container);
+	}
+
+	/**
+	 * Starts containers in the background until the pool is full.
+	 */
+	private synchronized void replenish() {
+		while(ready.size() + starting < size) {
+			starting++;
+			background.execute(() -> {
+				try {
+					offer(create());
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				} finally {
+					synchronized(this) {
+						starting--;
+					}
+				}
+			});
+		}
+	}
+
+	private String create() {
+		try {
+			session.requireImage(dockerImage);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while pulling " + dockerImage, e);
+		}
+		String container = DockerRunner.newContainerName();
+		containers.add(container);
+		dockerRun(dockerImage, container, dockerClient);
+		return container;
+	}
+
+	private void remove(String container) {
+		containers.remove(container);
+		try {
+			dockerStop(container, dockerClient);
+		} catch (RuntimeException e) {
+			// Already stopped
+		}
+		try {
+			dockerRm(container, dockerClient);
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Removes every container of the pool, leased or not.
+	 */
+	private void close() {
+		background.shutdownNow();
+		ready.clear();
+		for(String container : containers.toArray(new String[0]))
+			remove(container);
+	}
+}
@@ -0,0 +1,128 @@
+package fr.contacgen;
+
+import static fr.contacgen.ConTacGenUtils.dockerRm;
+import static fr.contacgen.ConTacGenUtils.dockerStop;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.dockerjava.api.DockerClient;
+
+/**
+ * Stops and removes containers in the background, so a run does not wait
+ * for docker to tear its container down before parsing its capture.
+ * Removals still pending when the JVM exits are done by a shutdown hook,
+ * which also removes the containers registered as running, like the one of
+ * a capture cut short by Ctrl-C.
+ */
+public class ContainerReaper {
+	private static final int THREADS = 2;
+	private static final long SHUTDOWN_TIMEOUT = 60;
+	private static ContainerReaper shared = null;
+
+	private final DockerClient dockerClient;
+	private final ExecutorService background;
+	// The containers started and not handed to remove yet
+	private final Set<String> running = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * @param session the session the containers are removed through
+	 */
+	public ContainerReaper(DockerSession session) {
+		this.dockerClient = session.getClient();
+		AtomicInteger count = new AtomicInteger();
+		this.background = Executors.newFixedThreadPool(THREADS, (Runnable task) -> {
+			Thread thread = new Thread(task, "contacgen-reaper-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+	}
+
+	/**
+	 * Gets the reaper shared by the whole JVM, working on the shared session.
+	 *
+	 * @return the shared reaper
+	 */
+	public static synchronized ContainerReaper shared() {
+		if(shared == null)
+			shared = new ContainerReaper(DockerSession.shared());
+		return shared;
+	}
+
+	/**
+	 * Registers a container about to be started, so it is removed if the JVM exits before its run releases it.
+	 *
+	 * @param containerName the name of the container
+	 */
+	public void register(String containerName) {
+		running.add(containerName);
+	}
+
+	/**
+	 * Stops and removes a container in the background.
+	 *
+	 * @param containerName the name of the container
+	 */
+	public void remove(String containerName) {
+		remove(containerName, null);
+	}
+
+	/**
+	 * Stops and removes a container in the background, adding the time it took to the teardown stage.
+	 * The container is no longer registered as running.
+	 *
+	 * @param containerName the name of the container
+	 * @param metrics the metrics of the run, or null
+	 */
+	public void remove(String containerName, GenerationMetrics metrics) {
+		running.remove(containerName);
+		Runnable removal = () -> {
+			long stage = System.nanoTime();
+			removeNow(containerName);
+			if(metrics != null)
+				metrics.stage(GenerationMetrics.TEARDOWN, stage);
+		};
+		try {
+			background.execute(removal);
+		} catch (RejectedExecutionException e) {
+			// Shutting down, nothing runs in the background anymore
+			removal.run();
+		}
+	}
+
+	private void removeNow(String containerName) {
+		try {
+			dockerStop(containerName, dockerClient);
+		} catch (RuntimeException e) {
+			// Already stopped
+		}
+		try {
+			dockerRm(containerName, dockerClient);
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Waits for the pending removals, then removes the containers still registered.
+	 * Removals asked for afterwards are done right away.
+	 */
+	private void close() {
+		background.shutdown();
+		try {
+			background.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for(String containerName : running) {
+			running.remove(containerName);
+			removeNow(containerName);
+		}
+	}
+}
@@ -0,0 +1,309 @@
+package fr.contacgen;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Context of a packet among the previous packets of its source address:
+ * how many packets and bytes it sent, to how many distinct destinations and
+ * which share of them were attacks, over the last milliseconds and over the
+ * last packets.
+ * Each source keeps its recent packets in a ring buffer and both windows
+ * evict from its tail as they move, keeping their sums and the count of each
+ * destination up to date, so adding a packet costs O(1) amortized whatever
+ * the rate.
+ * Every time window of capture time, the sources whose newest packet left
+ * the time window are dropped, so a source idle for that long starts its
+ * count window anew.
+ */
+public class ContextWindows {
+	private final long millis;
+	private final int packets;
+	private final Map<String, Source> sources = new HashMap<>();
+	private final Map<String, Integer> destinationIds = new HashMap<>();
+	private long newest = Long.MIN_VALUE, lastSweep = Long.MIN_VALUE;
+
+	// Context of the last packet added
+	private int timePackets, timeDestinations, lastPackets, lastDestinations;
+	private long timeBytes, lastBytes;
+	private double timeAttackRatio, lastAttackRatio;
+
+	/**
+	 * @param millis the length of the time window in milliseconds
+	 * @param packets the number of packets of the count window
+	 */
+	public ContextWindows(long millis, int packets) {
+		if(millis <= 0 || packets <= 0)
+			throw new IllegalArgumentException("The context windows must be positive.");
+		this.millis = millis;
+		this.packets = packets;
+	}
+
+	/**
+	 * Moves the windows of the source of the packet up to it and adds it.
+	 * The getters then describe the packets of the source before this one.
+	 *
+	 * @param packet the next packet, in capture order
+	 */
+	public void add(PacketData packet) {
+		newest = Math.max(newest, packet.getTimestamp());
+		if(lastSweep == Long.MIN_VALUE) lastSweep = newest;
+		else if(newest - lastSweep >= millis * 1000) sweep();
+
+		Source source = sources.computeIfAbsent(packet.getSrcIP(), (String address) -> new Source());
+		source.slide(packet.getTimestamp() - millis * 1000, packets);
+
+		timePackets = source.time.count;
+		timeBytes = source.time.bytes;
+		timeDestinations = source.time.destinations.distinct();
+		timeAttackRatio = source.time.attackRatio();
+		lastPackets = source.last.count;
+		lastBytes = source.last.bytes;
+		lastDestinations = source.last.destinations.distinct();
+		lastAttackRatio = source.last.attackRatio();
+
+		source.add(packet, destinationId(packet.getDstIP()));
+	}
+
+	/**
+	 * Drops the sources with no packet in the time window of the newest packet.
+	 */
+	private void sweep() {
+		long since = newest - millis * 1000;
+		sources.values().removeIf((Source source) -> source.newest < since);
+		if(sources.isEmpty()) destinationIds.clear();
+		lastSweep = newest;
+	}
+
+	private int destinationId(String address) {
+		Integer id = destinationIds.get(address);
+		if(id == null) {
+			id = destinationIds.size();
+			destinationIds.put(address, id);
+		}
+		return id;
+	}
+
+	/**
+	 * @return the number of sources kept
+	 */
+	public int getSources() {
+		return sources.size();
+	}
+
+	/**
+	 * @return the number of packets of the source in the time window
+	 */
+	public int getTimePackets() {
+		return timePackets;
+	}
+
+	public long getTimeBytes() {
+		return timeBytes;
+	}
+
+	public int getTimeDestinations() {
+		return timeDestinations;
+	}
+
+	public double getTimeAttackRatio() {
+		return timeAttackRatio;
+	}
+
+	/**
+	 * @return the number of packets of the source in the count window, less than its size at first
+	 */
+	public int getLastPackets() {
+		return lastPackets;
+	}
+
+	public long getLastBytes() {
+		return lastBytes;
+	}
+
+	public int getLastDestinations() {
+		return lastDestinations;
+	}
+
+	public double getLastAttackRatio() {
+		return lastAttackRatio;
+	}
+
+	/**
+	 * Recent packets of one source, from the oldest one of either window.
+	 */
+	private static class Source {
+		private long[] times = new long[16];
+		private int[] lengths = new int[16], destinations = new int[16];
+		private boolean[] attacks = new boolean[16];
+		// Sequence numbers of the packets, the ring index is the sequence modulo the capacity
+		private long tail = 0, head = 0;
+		private long newest = Long.MIN_VALUE;
+		private final Window time = new Window(), last = new Window();
+
+		/**
+		 * Evicts the packets older than the given time and those beyond the given count.
+		 */
+		public void slide(long since, int packets) {
+			while(time.start < head && times[index(time.start)] < since)
+				time.remove(index(time.start++));
+			while(head - last.start > packets)
+				last.remove(index(last.start++));
+			tail = Math.min(time.start, last.start);
+		}
+
+		public void add(PacketData packet, int destination) {
+			if(head - tail == times.length) grow();
+			int i = index(head++);
+			times[i] = packet.getTimestamp();
+			newest = Math.max(newest, times[i]);
+			lengths[i] = packet.getTotalLength();
+			destinations[i] = destination;
+			attacks[i] = packet.isAttack();
+			time.add(i);
+			last.add(i);
+		}
+
+		private int index(long sequence) {
+			return (int) (sequence & (times.length - 1));
+		}
+
+		private void grow() {
+			int capacity = times.length * 2;
+			long[] times = new long[capacity];
+			int[] lengths = new int[capacity], destinations = new int[capacity];
+			boolean[] attacks = new boolean[capacity];
+			for(long sequence = tail; sequence < head; sequence++) {
+				int from = index(sequence), to = (int) (sequence & (capacity - 1));
+				times[to] = this.times[from];
+				lengths[to] = this.lengths[from];
+				destinations[to] = this.destinations[from];
+				attacks[to] = this.attacks[from];
+			}
+			this.times = times;
+			this.lengths = lengths;
+			this.destinations = destinations;
+			this.attacks = attacks;
+		}
+
+		/**
+		 * Sums over the packets from a sequence number to the newest one.
+		 */
+		private class Window {
+			private long start = 0;
+			private int count = 0, attacks = 0;
+			private long bytes = 0;
+			private final Counter destinations = new Counter();
+
+			public void add(int i) {
+				count++;
+				bytes += lengths[i];
+				if(Source.this.attacks[i]) attacks++;
+				destinations.increment(Source.this.destinations[i]);
+			}
+
+			public void remove(int i) {
+				count--;
+				bytes -= lengths[i];
+				if(Source.this.attacks[i]) attacks--;
+				destinations.decrement(Source.this.destinations[i]);
+			}
+
+			public double attackRatio() {
+				return count == 0 ? 0 : (double) attacks / count;
+			}
+		}
+	}
+
+	/**
+	 * Counts per int key in an open addressing table, a key leaving the table once its count is back to 0.
+	 */
+	private static class Counter {
+		private int[] keys = new int[16], counts = new int[16];
+		private int distinct = 0;
+
+		public void increment(int key) {
+			int slot = slot(key);
+			if(counts[slot]++ == 0) {
+				keys[slot] = key;
+				if(++distinct * 2 > keys.length) rehash();
+			}
+		}
+
+		public void decrement(int key) {
+			int slot = slot(key);
+			if(--counts[slot] == 0) {
+				distinct--;
+				shiftBack(slot);
+			}
+		}
+
+		public int distinct() {
+			return distinct;
+		}
+
+		private int slot(int key) {
+			int mask = keys.length - 1;
+			int slot = mix(key) & mask;
+			while(counts[slot] != 0 && keys[slot] != key)
+				slot = (slot + 1) & mask;
+			return slot;
+		}
+
+		private void shiftBack(int hole) {
+			int mask = keys.length - 1;
+			for(int next = (hole + 1) & mask; counts[next] != 0; next = (next + 1) & mask) {
+				int home = mix(keys[next]) & mask;
+				boolean stays = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+				if(!stays) {
+					keys[hole] = keys[next];
+					counts[hole] = counts[next];
+					counts[next] = 0;
+					hole = next;
+				}
+			}
+		}
+
+		private void rehash() {
+			int[] oldKeys = keys, oldCounts = counts;
+			keys = new int[oldKeys.length * 2];
+			counts = new int[oldKeys.length * 2];
+			int mask = keys.length - 1;
+			for(int i = 0; i < oldKeys.length; i++) {
+				if(oldCounts[i] == 0) continue;
+				int slot = mix(oldKeys[i]) & mask;
+				while(counts[slot] != 0) slot = (slot + 1) & mask;
+				keys[slot] = oldKeys[i];
+				counts[slot] = oldCounts[i];
+			}
+		}
+
+		private static int mix(int key) {
+			int h = key * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return millis + ":" + packets;
+	}
+
+	/**
+	 * Parses the windows as MILLISECONDS:PACKETS.
+	 *
+	 * @param spec the windows
+	 * @return the context windows
+	 * @throws IllegalArgumentException if the windows cannot be parsed
+	 */
+	public static ContextWindows parse(String spec) {
+		String[] values = spec.split(":");
+		if(values.length != 2)
+			throw new IllegalArgumentException("Context windows must be given as milliseconds:packets, got '" + spec + "'.");
+		try {
+			return new ContextWindows(Long.parseLong(values[0].trim()), Integer.parseInt(values[1].trim()));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Context windows must be given as milliseconds:packets, got '" + spec + "'.");
+		}
+	}
+}
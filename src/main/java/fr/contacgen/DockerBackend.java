@@ -0,0 +1,45 @@
+package fr.contacgen;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+/**
+ * Captures the traffic of a docker container while it is attacked,
+ * each capture running in a container of its own.
+ */
+public class DockerBackend implements CaptureBackend {
+	private final String dockerImage;
+	private final Attack attack;
+	private final int duration;
+	private final int parallelism;
+	private final CaptureMode mode;
+	private final ContainerPool pool;
+
+	/**
+	 * @param dockerImage the docker image to run
+	 * @param attack creates the attack given the container address, the seed and the index labelling its flows
+	 * @param duration the capture duration in seconds
+	 * @param parallelism the number of threads parsing the capture
+	 * @param mode how the capture gets from the container to the parser
+	 * @param pool the pool to lease containers from, null to create a container for each capture
+	 */
+	public DockerBackend(String dockerImage, Attack attack, int duration,
+			int parallelism, CaptureMode mode, ContainerPool pool) {
+		this.dockerImage = dockerImage;
+		this.attack = attack;
+		this.duration = duration;
+		this.parallelism = parallelism;
+		this.mode = mode;
+		this.pool = pool;
+	}
+
+	@Override
+	public void capture(ConTacGenPacketHandler handler, long seed) throws InterruptedException, IOException {
+		// The packets of the capture are labelled by the flows the attack records
+		AttackIndex index = new AttackIndex();
+		handler.labelWith(index);
+		new DockerRunner(dockerImage, handler).run((InetAddress t) -> {
+			attack.create(t, seed, index).run();
+		}, duration, parallelism, mode, pool);
+	}
+}
@@ -1,37 +1,57 @@
 package fr.contacgen;
 
-import static fr.contacgen.ConTacGenUtils.dockerContainerExists;
 import static fr.contacgen.ConTacGenUtils.dockerCp;
 import static fr.contacgen.ConTacGenUtils.dockerExec;
-import static fr.contacgen.ConTacGenUtils.dockerImageExists;
 import static fr.contacgen.ConTacGenUtils.dockerInspectIP;
-import static fr.contacgen.ConTacGenUtils.dockerPull;
-import static fr.contacgen.ConTacGenUtils.dockerRm;
 import static fr.contacgen.ConTacGenUtils.dockerRun;
-import static fr.contacgen.ConTacGenUtils.dockerStop;
-import static fr.contacgen.ConTacGenUtils.getDockerClient;
+import static fr.contacgen.ConTacGenUtils.dockerStream;
 import static fr.contacgen.ConTacGenUtils.readPcap;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 import com.github.dockerjava.api.DockerClient;
 import com.github.dockerjava.api.async.ResultCallback.Adapter;
 import com.github.dockerjava.api.model.Frame;
 
+/**
+ * Runs one capture in its own container.
+ * Every runner has its own container name, capture file and packet handler,
+ * so several runners can capture at the same time.
+ */
 public class DockerRunner {
+	private static final AtomicInteger COUNTER = new AtomicInteger();
 
-	private DockerRunner() {}
+	private final String dockerImage;
+	private final ConTacGenPacketHandler handler;
+	// The container of the run, until it is released
+	private String container = null;
+
+	/**
+	 * @param dockerImage the docker image to run
+	 * @param handler the handler receiving the packets of the capture
+	 */
+	public DockerRunner(String dockerImage, ConTacGenPacketHandler handler) {
+		this.dockerImage = dockerImage;
+		this.handler = handler;
+	}
+
+	/**
+	 * @return a container name no other runner of any JVM uses
+	 */
+	static String newContainerName() {
+		return "wekacontacgen-" + ProcessHandle.current().pid() + "-" + COUNTER.incrementAndGet();
+	}
 
 	/**
 	 * Run a docker container.
 	 * Execute the payload.sh script in the container.
 	 * Execute the attack in the container.
 	 * Copy the pcap file from the container to the host.
-	 * Stop the container.
-	 * Remove the container.
+	 * Stop and remove the container in the background.
 	 * Parse the pcap file.
 	 * And manage the multi-threading.
 	 * 
@@ -40,64 +60,265 @@ public class DockerRunner {
 	 * @throws IOException if a connection cannot be established to docker
 	 */
 	public static ConTacGenPacketHandler dockerMain(String dockerImage, Consumer<InetAddress> toRun, int duration) throws InterruptedException, IOException {
-		File tmpFile = new File(System.getProperty("java.io.tmpdir") + "/capture.pcap");
+		return dockerMain(dockerImage, toRun, duration, 1);
+	}
+
+	/**
+	 * Same as {@link #dockerMain(String, Consumer, int)}, parsing the pcap file with several threads.
+	 * 
+	 * @param dockerImage the docker image to run
+	 * @param parallelism the number of threads parsing the capture
+	 * @throws InterruptedException if waiting for completion fails
+	 * @throws IOException if a connection cannot be established to docker
+	 */
+	public static ConTacGenPacketHandler dockerMain(String dockerImage, Consumer<InetAddress> toRun, int duration, int parallelism) throws InterruptedException, IOException {
+		return dockerMain(dockerImage, toRun, duration, parallelism, CaptureMode.FILE);
+	}
+
+	/**
+	 * Same as {@link #dockerMain(String, Consumer, int, int)}, choosing how the capture leaves the container.
+	 * With {@link CaptureMode#DIRECT} the capture is parsed sequentially while it is copied,
+	 * with {@link CaptureMode#LIVE} it is parsed while it is taken.
+	 * 
+	 * @param dockerImage the docker image to run
+	 * @param parallelism the number of threads parsing the capture
+	 * @param mode how the capture gets from the container to the parser
+	 * @throws InterruptedException if waiting for completion fails
+	 * @throws IOException if a connection cannot be established to docker
+	 */
+	public static ConTacGenPacketHandler dockerMain(String dockerImage, Consumer<InetAddress> toRun, int duration, int parallelism,
+			CaptureMode mode) throws InterruptedException, IOException {
+		return dockerMain(dockerImage, toRun, duration, parallelism, mode, null);
+	}
+
+	/**
+	 * Same as {@link #dockerMain(String, Consumer, int, int, CaptureMode)}, leasing an already started container.
+	 * 
+	 * @param dockerImage the docker image to run
+	 * @param parallelism the number of threads parsing the capture
+	 * @param mode how the capture gets from the container to the parser
+	 * @param pool the pool to lease the container from, null to create a container for this run only
+	 * @throws InterruptedException if waiting for completion fails
+	 * @throws IOException if a connection cannot be established to docker
+	 */
+	public static ConTacGenPacketHandler dockerMain(String dockerImage, Consumer<InetAddress> toRun, int duration, int parallelism,
+			CaptureMode mode, ContainerPool pool) throws InterruptedException, IOException {
+		return new DockerRunner(dockerImage, new ConTacGenPacketHandler()).run(toRun, duration, parallelism, mode, pool);
+	}
+
+	/**
+	 * Runs the container and the attack, then parses the capture into the handler of this runner.
+	 * 
+	 * @param toRun the attack, given the address of the container
+	 * @param duration the capture duration in seconds
+	 * @param parallelism the number of threads parsing the capture
+	 * @param mode how the capture gets from the container to the parser
+	 * @param pool the pool to lease the container from, null to create a container for this run only
+	 * @return the handler of this runner
+	 * @throws InterruptedException if waiting for completion fails
+	 * @throws IOException if a connection cannot be established to docker
+	 */
+	public ConTacGenPacketHandler run(Consumer<InetAddress> toRun, int duration, int parallelism,
+			CaptureMode mode, ContainerPool pool) throws InterruptedException, IOException {
 		System.out.println("Run Docker");
+		GenerationMetrics metrics = handler.getMetrics();
 
 		// Docker parameters
-		String containerName = "wekacontacgen";
-		String containerFile = "/data/capture.pcap";
+		long stage = System.nanoTime();
+		String containerFile = "/data/capture.pcapng";
 
 		// Get the Docker client
 		System.out.println("Get Docker client");
-		DockerClient dockerClient = getDockerClient();
-		if(dockerClient == null)
-			throw new IllegalStateException("Could not connect to docker !");
-
-		// Check if the container is already running
-		if (dockerContainerExists(containerName, dockerClient)) {
-			System.out.println("Container already exists, stopping");
-			dockerStop(containerName, dockerClient);
-			dockerRm(containerName, dockerClient);
-		}
+		DockerSession session = DockerSession.shared();
+		DockerClient dockerClient = session.getClient();
 
-		// Check if the image exists
-		if (!dockerImageExists(dockerImage, dockerClient)) {
-			// Pull the image
-			dockerPull(dockerImage, dockerClient);
-		}
+		// Check if the image exists, pull it otherwise. The containers of a pool are
+		// started from it too, it is then only looked up in the images already present
+		session.requireImage(dockerImage);
+		metrics.stage(GenerationMetrics.PULL, stage);
+		stage = System.nanoTime();
 
-		// Run the container
-		dockerRun(dockerImage, containerName, dockerClient);
-		Adapter<Frame> exec = dockerExec("./payload.sh -d " + duration, containerName, dockerClient);
+		String containerName = pool != null ? pool.lease() : newContainerName();
+		container = pool != null ? containerName : null;
+		try {
+			if (pool == null) {
+				// The reaper and its shutdown hook exist before the container does
+				ContainerReaper reaper = ContainerReaper.shared();
+				// A container left by a dead JVM with the same pid is removed in the background
+				while (session.containerExists(containerName)) {
+					System.out.println("Container already exists, removing it in the background");
+					reaper.remove(containerName);
+					containerName = newContainerName();
+				}
 
-		// Get the IP address of the container
-		String ipAddress = dockerInspectIP(containerName, dockerClient);
-		InetAddress address = InetAddress.getByName(ipAddress);
+				// Run the container, the reaper removes it if the JVM exits before the release
+				container = containerName;
+				reaper.register(containerName);
+				dockerRun(dockerImage, containerName, dockerClient);
+			}
+			metrics.stage(GenerationMetrics.START, stage);
+			if(mode == CaptureMode.LIVE && !session.supportsLive(dockerImage, containerName)) {
+				System.out.println("Warning: the payload.sh of " + dockerImage + " has no --live option, capturing to a file instead. Rebuild the image to capture live.");
+				mode = CaptureMode.FILE;
+			}
+			if(mode == CaptureMode.LIVE)
+				return dockerLive(containerName, toRun, duration, dockerClient, pool);
+			stage = System.nanoTime();
+			Adapter<Frame> exec = dockerExec("./payload.sh -d " + duration, containerName, dockerClient);
 
-		// Start UDP DOS
-		System.out.println("Start attack code");
-		Runnable task = () -> toRun.accept(address);
-		Thread attack = new Thread(task);
-		attack.start();
+			// Get the IP address of the container
+			String ipAddress = dockerInspectIP(containerName, dockerClient);
+			InetAddress address = InetAddress.getByName(ipAddress);
 
-		exec.awaitCompletion();
-		attack.join();
+			// Start UDP DOS
+			System.out.println("Start attack code");
+			Thread attack = attackThread(toRun, address, metrics);
+			attack.start();
+			try {
+				exec.awaitCompletion();
+				attack.join();
+			} finally {
+				stopAttack(attack);
+			}
+			metrics.stage(GenerationMetrics.CAPTURE, stage);
 
-		dockerCp(tmpFile, containerName, containerFile, dockerClient);
+			handler.clear();
 
-		dockerStop(containerName, dockerClient);
+			if(mode == CaptureMode.DIRECT) {
+				// Parse the pcap file while it is copied
+				stage = System.nanoTime();
+				try {
+					metrics.copied(dockerStream(containerName, containerFile, dockerClient, handler));
+					metrics.stage(GenerationMetrics.PARSE, stage);
+				} finally {
+					release(pool);
+				}
+				System.out.println("Stop attack");
+				return handler;
+			}
 
-		dockerRm(containerName, dockerClient);
+			File tmpFile = File.createTempFile("capture", ".pcapng");
+			try {
+				stage = System.nanoTime();
+				dockerCp(tmpFile, containerName, containerFile, dockerClient);
+				metrics.copied(tmpFile.length());
+				metrics.stage(GenerationMetrics.COPY, stage);
 
-		// DEBUG LOG
-		System.out.println("Stop attack");
+				release(pool);
+
+				// DEBUG LOG
+				System.out.println("Stop attack");
 
-		// Parse the pcap file
-		ConTacGenPacketHandler handler = ConTacGenPacketHandler.getInstance();
+				// Parse the pcap file
+				stage = System.nanoTime();
+				readPcap(tmpFile, handler, parallelism);
+				metrics.stage(GenerationMetrics.PARSE, stage);
+			} finally {
+				tmpFile.delete();
+			}
+			return handler;
+		} finally {
+			// A run that failed gives its container back too
+			release(pool);
+		}
+	}
+
+	/**
+	 * Capture on the standard output of payload.sh and parse the packets as they arrive,
+	 * while the attack is running.
+	 * 
+	 * @param containerName the name of the running container
+	 * @param dockerClient the Docker client
+	 * @param pool the pool the container was leased from, or null
+	 * @throws InterruptedException if waiting for completion fails
+	 * @throws IOException if the capture cannot be parsed
+	 */
+	private ConTacGenPacketHandler dockerLive(String containerName, Consumer<InetAddress> toRun, int duration,
+			DockerClient dockerClient, ContainerPool pool) throws InterruptedException, IOException {
 		handler.clear();
+		GenerationMetrics metrics = handler.getMetrics();
+
+		FrameInputStream capture = new FrameInputStream();
+		Thread attack = null;
+		try {
+			// Capture and parse overlap, they are measured as one stage
+			long stage = System.nanoTime();
+			Adapter<Frame> exec = dockerExec("./payload.sh --live -d " + duration, containerName, dockerClient, capture);
+
+			// Get the IP address of the container
+			String ipAddress = dockerInspectIP(containerName, dockerClient);
+			InetAddress address = InetAddress.getByName(ipAddress);
+
+			// Start UDP DOS
+			System.out.println("Start attack code");
+			attack = attackThread(toRun, address, metrics);
+			attack.start();
+
+			// Parse the packets until the capture ends, the frames left once parsing stops are dropped
+			System.out.println("Parse live capture");
+			try (FrameInputStream frames = capture) {
+				PcapReader.read(frames, handler);
+			}
+			metrics.copied(capture.getBytesReceived());
 
-		readPcap(tmpFile, handler);
-		tmpFile.delete();
+			exec.awaitCompletion();
+			attack.join();
+			metrics.stage(GenerationMetrics.PARSE, stage);
+		} finally {
+			// Docker must not wait for room in the queue of a capture nobody reads anymore
+			capture.close();
+			stopAttack(attack);
+			release(pool);
+		}
+
+		// DEBUG LOG
+		System.out.println("Stop attack");
 		return handler;
 	}
+
+	/**
+	 * Interrupts the attack if it still runs, as when the capture failed, and waits for it to end.
+	 * 
+	 * @param attack the attack thread, or null if it was not started
+	 */
+	private static void stopAttack(Thread attack) {
+		if(attack == null || !attack.isAlive()) return;
+		attack.interrupt();
+		boolean interrupted = false;
+		while(true) {
+			try {
+				attack.join();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * @return a thread running the attack and measuring how long it took
+	 */
+	private static Thread attackThread(Consumer<InetAddress> toRun, InetAddress address, GenerationMetrics metrics) {
+		return new Thread(() -> {
+			long stage = System.nanoTime();
+			toRun.accept(address);
+			metrics.stage(GenerationMetrics.ATTACK, stage);
+		});
+	}
+
+	/**
+	 * Gives the container of the run back to its pool, or has it stopped and removed in the background
+	 * when it was created for this run. Does nothing once it was released.
+	 * The background work is measured as the teardown stage.
+	 */
+	private void release(ContainerPool pool) {
+		if(container == null) return;
+		if(pool != null)
+			pool.release(container, handler.getMetrics());
+		else
+			ContainerReaper.shared().remove(container, handler.getMetrics());
+		container = null;
+	}
 }
@@ -0,0 +1,116 @@
+package fr.contacgen;
+
+import static fr.contacgen.ConTacGenUtils.dockerContainerExists;
+import static fr.contacgen.ConTacGenUtils.dockerExecStatus;
+import static fr.contacgen.ConTacGenUtils.dockerImageExists;
+import static fr.contacgen.ConTacGenUtils.dockerPull;
+import static fr.contacgen.ConTacGenUtils.getDockerClient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.dockerjava.api.DockerClient;
+
+/**
+ * A connection to docker reused by every call made through it.
+ * Images known to be present, and whether their payload.sh captures live,
+ * are remembered for the life of the JVM, so they are only looked up once.
+ */
+public class DockerSession implements Closeable {
+	private static final Set<String> PRESENT_IMAGES = ConcurrentHashMap.newKeySet();
+	private static final Map<String, Boolean> LIVE_IMAGES = new ConcurrentHashMap<>();
+	private static DockerSession shared = null;
+
+	private final DockerClient dockerClient;
+
+	/**
+	 * Opens a session with the default docker configuration.
+	 */
+	public DockerSession() {
+		this(getDockerClient());
+	}
+
+	/**
+	 * @param dockerClient the client to use, closed with the session
+	 */
+	public DockerSession(DockerClient dockerClient) {
+		if(dockerClient == null)
+			throw new IllegalStateException("Could not connect to docker !");
+		this.dockerClient = dockerClient;
+	}
+
+	/**
+	 * Gets the session shared by the whole JVM.
+	 * It is never closed, so that shutdown hooks can still use it.
+	 *
+	 * @return the shared session
+	 */
+	public static synchronized DockerSession shared() {
+		if(shared == null)
+			shared = new DockerSession();
+		return shared;
+	}
+
+	public DockerClient getClient() {
+		return dockerClient;
+	}
+
+	/**
+	 * @param dockerImage the docker image
+	 * @return true if the image is present locally
+	 */
+	public boolean imageExists(String dockerImage) {
+		if(PRESENT_IMAGES.contains(dockerImage))
+			return true;
+		if(!dockerImageExists(dockerImage, dockerClient))
+			return false;
+		PRESENT_IMAGES.add(dockerImage);
+		return true;
+	}
+
+	/**
+	 * Pulls the image unless it is present locally.
+	 *
+	 * @param dockerImage the docker image
+	 * @throws InterruptedException if interrupted while pulling
+	 */
+	public void requireImage(String dockerImage) throws InterruptedException {
+		if(imageExists(dockerImage))
+			return;
+		dockerPull(dockerImage, dockerClient);
+		PRESENT_IMAGES.add(dockerImage);
+	}
+
+	/**
+	 * Tells if the payload.sh of an image has the --live option, images built before it do not.
+	 *
+	 * @param dockerImage the docker image
+	 * @param containerName a running container of the image, asked the first time
+	 * @return true if the image can capture live
+	 * @throws InterruptedException if interrupted while asking the container
+	 */
+	public boolean supportsLive(String dockerImage, String containerName) throws InterruptedException {
+		Boolean live = LIVE_IMAGES.get(dockerImage);
+		if(live == null) {
+			live = dockerExecStatus("./payload.sh --help | grep -q -- --live", containerName, dockerClient) == 0;
+			LIVE_IMAGES.put(dockerImage, live);
+		}
+		return live;
+	}
+
+	/**
+	 * @param containerName the name of the container
+	 * @return true if the container exists, running or not
+	 */
+	public boolean containerExists(String containerName) {
+		return dockerContainerExists(containerName, dockerClient);
+	}
+
+	@Override
+	public void close() throws IOException {
+		dockerClient.close();
+	}
+}
@@ -0,0 +1,110 @@
+package fr.contacgen;
+
+/**
+ * A cursor over one flow of a {@link FlowTable}.
+ * The same instance is moved from flow to flow, so it must not be kept once
+ * the consumer it was given to returns.
+ */
+public class FlowData {
+	private final FlowTable table;
+	private int flow;
+
+	public FlowData(FlowTable table) {
+		this.table = table;
+	}
+
+	/**
+	 * Moves the cursor to the given flow.
+	 *
+	 * @param flow the id of the flow
+	 * @return this cursor
+	 */
+	public FlowData at(int flow) {
+		this.flow = flow;
+		return this;
+	}
+
+	public String getSrcIP() {
+		return table.getSrcIP(flow);
+	}
+
+	public String getDstIP() {
+		return table.getDstIP(flow);
+	}
+
+	public int getSrcPort() {
+		return table.getSrcPort(flow);
+	}
+
+	public int getDstPort() {
+		return table.getDstPort(flow);
+	}
+
+	public int getTransport() {
+		return table.getTransport(flow);
+	}
+
+	public long getStart() {
+		return table.getStart(flow);
+	}
+
+	public long getDuration() {
+		return table.getDuration(flow);
+	}
+
+	public long getFwdPackets() {
+		return table.getFwdPackets(flow);
+	}
+
+	public long getBwdPackets() {
+		return table.getBwdPackets(flow);
+	}
+
+	public long getFwdBytes() {
+		return table.getFwdBytes(flow);
+	}
+
+	public long getBwdBytes() {
+		return table.getBwdBytes(flow);
+	}
+
+	public double getFwdLengthMean() {
+		return table.getFwdLengthMean(flow);
+	}
+
+	public double getFwdLengthStd() {
+		return table.getFwdLengthStd(flow);
+	}
+
+	public double getBwdLengthMean() {
+		return table.getBwdLengthMean(flow);
+	}
+
+	public double getBwdLengthStd() {
+		return table.getBwdLengthStd(flow);
+	}
+
+	public double getIatMean() {
+		return table.getIatMean(flow);
+	}
+
+	public double getIatStd() {
+		return table.getIatStd(flow);
+	}
+
+	public long getIatMin() {
+		return table.getIatMin(flow);
+	}
+
+	public long getIatMax() {
+		return table.getIatMax(flow);
+	}
+
+	public int getFlagCount(int flag) {
+		return table.getFlagCount(flow, flag);
+	}
+
+	public boolean isAttack() {
+		return table.isAttack(flow);
+	}
+}
@@ -0,0 +1,463 @@
+package fr.contacgen;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Aggregates packets into bidirectional flows while they are parsed.
+ * A flow is keyed by its 5-tuple, the direction of its first packet being
+ * the forward one, and ends once idle or active for longer than the timeouts,
+ * or when the capture is flushed. Ended flows are handed to a sink and their
+ * slot is reused, so memory follows the number of active flows, not of packets.
+ * Flows live in primitive columns found through an open addressing table,
+ * their statistics are updated in a single pass with Welford's algorithm.
+ * The addresses are counted by the flows using them, an address no flow uses
+ * anymore is forgotten and its id reused.
+ */
+public class FlowTable {
+	public static final int FIN = 0x01, SYN = 0x02, RST = 0x04, PSH = 0x08, ACK = 0x10, URG = 0x20;
+	private static final int FLAGS = 6;
+	private static final int INITIAL_CAPACITY = 256;
+	// Idle flows are looked for once per second of capture, or per packets when the clock stalls
+	private static final long SWEEP = 1000000;
+	private static final int SWEEP_PACKETS = 1 << 16;
+
+	private final long idleTimeout, activeTimeout;
+	private final FlowData cursor = new FlowData(this);
+	private Predicate<FlowData> sink = (FlowData flow) -> true;
+	private boolean full = false;
+	// Newest packet time, captures merged out of order must not hold back the sweeps
+	private long newest = Long.MIN_VALUE, lastSweep = Long.MIN_VALUE;
+	private int sinceSweep = 0;
+
+	// Address strings are already shared by the packet tables, only their ids are keyed
+	private final Map<String, Integer> addressIds = new HashMap<>();
+	private final List<String> addressValues = new ArrayList<>();
+	private int[] addressRefs = new int[16], freeAddresses = new int[0];
+	private int freeAddressCount = 0;
+
+	// Flow ids plus one, 0 marks an empty slot
+	private int[] slots = new int[INITIAL_CAPACITY * 2];
+	private int active = 0;
+
+	// One entry per flow, ids of ended flows are reused
+	private int capacity = 0, allocated = 0;
+	private int[] free = new int[0];
+	private int freeCount = 0;
+	private long[] addresses, ports, first, last;
+	private long[] fwdPackets, bwdPackets, fwdBytes, bwdBytes, iatMin, iatMax;
+	private double[] fwdMean, fwdM2, bwdMean, bwdM2, iatMean, iatM2;
+	private int[] flagCounts;
+	private final BitSet attack = new BitSet();
+
+	/**
+	 * @param idleTimeout the time without packets ending a flow, in microseconds
+	 * @param activeTimeout the longest duration of a flow, longer ones are split, in microseconds
+	 */
+	public FlowTable(long idleTimeout, long activeTimeout) {
+		if(idleTimeout <= 0 || activeTimeout <= 0)
+			throw new IllegalArgumentException("The flow timeouts must be positive.");
+		this.idleTimeout = idleTimeout;
+		this.activeTimeout = activeTimeout;
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Hands every ended flow to the given sink. Aggregation stops as soon as the sink returns false.
+	 *
+	 * @param sink the flow consumer
+	 * @return this table
+	 */
+	public FlowTable stream(Predicate<FlowData> sink) {
+		this.sink = sink;
+		return this;
+	}
+
+	/**
+	 * Adds a packet to its flow, ending the flows that timed out before it.
+	 *
+	 * @param packet the packet
+	 * @return false once the sink asked to stop
+	 */
+	public boolean add(PacketData packet) {
+		if(full) return false;
+		long time = packet.getTimestamp();
+		newest = Math.max(newest, time);
+		if(lastSweep == Long.MIN_VALUE || newest - lastSweep >= SWEEP || ++sinceSweep >= SWEEP_PACKETS) {
+			lastSweep = newest;
+			sinceSweep = 0;
+			if(!expire(newest)) return false;
+		}
+
+		int src = addressId(packet.getSrcIP()), dst = addressId(packet.getDstIP());
+		int protocol = packet.getTransport(), srcPort = packet.getSrcPort(), dstPort = packet.getDstPort();
+		long forwardAddresses = (long) src << 32 | dst & 0xFFFFFFFFL;
+		long forwardPorts = (long) protocol << 32 | (long) srcPort << 16 | dstPort;
+
+		boolean forward = true;
+		int slot = find(forwardAddresses, forwardPorts);
+		if(slots[slot] == 0) {
+			int reverse = find((long) dst << 32 | src & 0xFFFFFFFFL, (long) protocol << 32 | (long) dstPort << 16 | srcPort);
+			if(slots[reverse] != 0) {
+				slot = reverse;
+				forward = false;
+			}
+		}
+		int flow = slots[slot] - 1, ended = -1;
+		if(flow >= 0 && (time - last[flow] > idleTimeout || time - first[flow] > activeTimeout)) {
+			// The packet starts a new flow, in its own direction
+			remove(slot);
+			if(!emit(flow)) return false;
+			// Released once the new flow holds the addresses, which would be forgotten otherwise
+			ended = flow;
+			flow = -1;
+			forward = true;
+			slot = find(forwardAddresses, forwardPorts);
+		}
+		if(flow < 0) {
+			flow = open(forwardAddresses, forwardPorts, time);
+			slots[slot] = flow + 1;
+			if(++active * 2 > slots.length) rehash();
+		}
+		if(ended >= 0) release(ended);
+		update(flow, forward, time, packet.getTotalLength(), packet.getTCPFlags(), packet.isAttack());
+		return true;
+	}
+
+	/**
+	 * Ends all the flows still active, in the order they started.
+	 *
+	 * @return false if the sink asked to stop
+	 */
+	public boolean flush() {
+		return end((int flow) -> true);
+	}
+
+	/**
+	 * @return the number of flows not ended yet
+	 */
+	public int getActive() {
+		return active;
+	}
+
+	private boolean expire(long now) {
+		return end((int flow) -> now - last[flow] > idleTimeout || now - first[flow] > activeTimeout);
+	}
+
+	private interface FlowFilter {
+		boolean test(int flow);
+	}
+
+	private boolean end(FlowFilter ended) {
+		if(full) return false;
+		List<Integer> flows = new ArrayList<>();
+		for(int slot = 0; slot < slots.length; slot++) {
+			if(slots[slot] != 0 && ended.test(slots[slot] - 1))
+				flows.add(slots[slot] - 1);
+		}
+		flows.sort((Integer a, Integer b) -> Long.compare(first[a], first[b]));
+		for(int flow : flows) {
+			remove(find(addresses[flow], ports[flow]));
+			if(!emit(flow)) return false;
+			release(flow);
+		}
+		return true;
+	}
+
+	private boolean emit(int flow) {
+		if(!sink.test(cursor.at(flow)))
+			full = true;
+		return !full;
+	}
+
+	private int open(long addresses, long ports, long time) {
+		int flow;
+		if(freeCount > 0) {
+			flow = free[--freeCount];
+		} else {
+			if(allocated == capacity)
+				allocate(capacity * 2);
+			flow = allocated++;
+		}
+		this.addresses[flow] = addresses;
+		addressRefs[(int) (addresses >>> 32)]++;
+		addressRefs[(int) addresses]++;
+		this.ports[flow] = ports;
+		first[flow] = last[flow] = time;
+		fwdPackets[flow] = bwdPackets[flow] = fwdBytes[flow] = bwdBytes[flow] = 0;
+		iatMin[flow] = Long.MAX_VALUE;
+		iatMax[flow] = 0;
+		fwdMean[flow] = fwdM2[flow] = bwdMean[flow] = bwdM2[flow] = iatMean[flow] = iatM2[flow] = 0;
+		Arrays.fill(flagCounts, flow * FLAGS, flow * FLAGS + FLAGS, 0);
+		attack.clear(flow);
+		return flow;
+	}
+
+	private void release(int flow) {
+		forget((int) (addresses[flow] >>> 32));
+		forget((int) addresses[flow]);
+		if(freeCount == free.length)
+			free = Arrays.copyOf(free, Math.max(16, free.length * 2));
+		free[freeCount++] = flow;
+	}
+
+	private void update(int flow, boolean forward, long time, int length, int flags, boolean isAttack) {
+		long packets = fwdPackets[flow] + bwdPackets[flow];
+		if(packets > 0) {
+			// Captures merged out of order give no negative gaps
+			long iat = Math.max(0, time - last[flow]);
+			double delta = iat - iatMean[flow];
+			iatMean[flow] += delta / packets;
+			iatM2[flow] += delta * (iat - iatMean[flow]);
+			iatMin[flow] = Math.min(iatMin[flow], iat);
+			iatMax[flow] = Math.max(iatMax[flow], iat);
+		}
+		last[flow] = Math.max(last[flow], time);
+
+		if(forward) {
+			long n = ++fwdPackets[flow];
+			fwdBytes[flow] += length;
+			double delta = length - fwdMean[flow];
+			fwdMean[flow] += delta / n;
+			fwdM2[flow] += delta * (length - fwdMean[flow]);
+		} else {
+			long n = ++bwdPackets[flow];
+			bwdBytes[flow] += length;
+			double delta = length - bwdMean[flow];
+			bwdMean[flow] += delta / n;
+			bwdM2[flow] += delta * (length - bwdMean[flow]);
+		}
+		for(int i = 0; i < FLAGS; i++) {
+			if((flags & 1 << i) != 0) flagCounts[flow * FLAGS + i]++;
+		}
+		if(isAttack) attack.set(flow);
+	}
+
+	private int addressId(String address) {
+		Integer id = addressIds.get(address);
+		if(id != null) return id;
+		if(freeAddressCount > 0) {
+			id = freeAddresses[--freeAddressCount];
+			addressValues.set(id, address);
+		} else {
+			id = addressValues.size();
+			addressValues.add(address);
+			if(id == addressRefs.length)
+				addressRefs = Arrays.copyOf(addressRefs, id * 2);
+		}
+		addressIds.put(address, id);
+		return id;
+	}
+
+	/**
+	 * Drops a reference to an address, forgetting it once no flow uses it.
+	 */
+	private void forget(int id) {
+		if(--addressRefs[id] != 0) return;
+		addressIds.remove(addressValues.get(id));
+		addressValues.set(id, null);
+		if(freeAddressCount == freeAddresses.length)
+			freeAddresses = Arrays.copyOf(freeAddresses, Math.max(16, freeAddresses.length * 2));
+		freeAddresses[freeAddressCount++] = id;
+	}
+
+	/**
+	 * @return the slot of the flow with the given key, or the empty slot it would go in
+	 */
+	private int find(long addresses, long ports) {
+		int mask = slots.length - 1;
+		int slot = mix(addresses, ports) & mask;
+		while(slots[slot] != 0) {
+			int flow = slots[slot] - 1;
+			if(this.addresses[flow] == addresses && this.ports[flow] == ports) break;
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Empties a slot, shifting back the flows probed past it so that no tombstone is needed.
+	 */
+	private void remove(int slot) {
+		int mask = slots.length - 1;
+		int hole = slot;
+		slots[hole] = 0;
+		active--;
+		for(int next = (hole + 1) & mask; slots[next] != 0; next = (next + 1) & mask) {
+			int flow = slots[next] - 1;
+			int home = mix(addresses[flow], ports[flow]) & mask;
+			// The flow stays if its home is cyclically between the hole and its slot
+			boolean stays = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+			if(!stays) {
+				slots[hole] = slots[next];
+				slots[next] = 0;
+				hole = next;
+			}
+		}
+	}
+
+	private void rehash() {
+		int[] old = slots;
+		slots = new int[old.length * 2];
+		int mask = slots.length - 1;
+		for(int id : old) {
+			if(id == 0) continue;
+			int slot = mix(addresses[id - 1], ports[id - 1]) & mask;
+			while(slots[slot] != 0) slot = (slot + 1) & mask;
+			slots[slot] = id;
+		}
+	}
+
+	private void allocate(int capacity) {
+		this.capacity = capacity;
+		addresses = grow(addresses, capacity);
+		ports = grow(ports, capacity);
+		first = grow(first, capacity);
+		last = grow(last, capacity);
+		fwdPackets = grow(fwdPackets, capacity);
+		bwdPackets = grow(bwdPackets, capacity);
+		fwdBytes = grow(fwdBytes, capacity);
+		bwdBytes = grow(bwdBytes, capacity);
+		iatMin = grow(iatMin, capacity);
+		iatMax = grow(iatMax, capacity);
+		fwdMean = grow(fwdMean, capacity);
+		fwdM2 = grow(fwdM2, capacity);
+		bwdMean = grow(bwdMean, capacity);
+		bwdM2 = grow(bwdM2, capacity);
+		iatMean = grow(iatMean, capacity);
+		iatM2 = grow(iatM2, capacity);
+		flagCounts = flagCounts == null ? new int[capacity * FLAGS] : Arrays.copyOf(flagCounts, capacity * FLAGS);
+	}
+
+	private static long[] grow(long[] column, int capacity) {
+		return column == null ? new long[capacity] : Arrays.copyOf(column, capacity);
+	}
+
+	private static double[] grow(double[] column, int capacity) {
+		return column == null ? new double[capacity] : Arrays.copyOf(column, capacity);
+	}
+
+	private static int mix(long addresses, long ports) {
+		long h = (addresses * 0x9E3779B97F4A7C15L) ^ ports;
+		h *= 0xC2B2AE3D27D4EB4FL;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	public String getSrcIP(int flow) {
+		return addressValues.get((int) (addresses[flow] >>> 32));
+	}
+
+	public String getDstIP(int flow) {
+		return addressValues.get((int) addresses[flow]);
+	}
+
+	/**
+	 * @param flow the id of the flow
+	 * @return the IPv4 protocol or the IPv6 next header of the flow
+	 */
+	public int getTransport(int flow) {
+		return (int) (ports[flow] >>> 32);
+	}
+
+	public int getSrcPort(int flow) {
+		return (int) (ports[flow] >>> 16) & 0xFFFF;
+	}
+
+	public int getDstPort(int flow) {
+		return (int) ports[flow] & 0xFFFF;
+	}
+
+	/**
+	 * @param flow the id of the flow
+	 * @return the time of the first packet in microseconds since the epoch
+	 */
+	public long getStart(int flow) {
+		return first[flow];
+	}
+
+	/**
+	 * @param flow the id of the flow
+	 * @return the time between the first and the last packet in microseconds
+	 */
+	public long getDuration(int flow) {
+		return last[flow] - first[flow];
+	}
+
+	public long getFwdPackets(int flow) {
+		return fwdPackets[flow];
+	}
+
+	public long getBwdPackets(int flow) {
+		return bwdPackets[flow];
+	}
+
+	public long getFwdBytes(int flow) {
+		return fwdBytes[flow];
+	}
+
+	public long getBwdBytes(int flow) {
+		return bwdBytes[flow];
+	}
+
+	public double getFwdLengthMean(int flow) {
+		return fwdMean[flow];
+	}
+
+	public double getFwdLengthStd(int flow) {
+		return std(fwdM2[flow], fwdPackets[flow]);
+	}
+
+	public double getBwdLengthMean(int flow) {
+		return bwdMean[flow];
+	}
+
+	public double getBwdLengthStd(int flow) {
+		return std(bwdM2[flow], bwdPackets[flow]);
+	}
+
+	/**
+	 * @param flow the id of the flow
+	 * @return the mean time between two packets in microseconds, 0 for a single packet
+	 */
+	public double getIatMean(int flow) {
+		return iatMean[flow];
+	}
+
+	public double getIatStd(int flow) {
+		return std(iatM2[flow], fwdPackets[flow] + bwdPackets[flow] - 1);
+	}
+
+	public long getIatMin(int flow) {
+		return iatMin[flow] == Long.MAX_VALUE ? 0 : iatMin[flow];
+	}
+
+	public long getIatMax(int flow) {
+		return iatMax[flow];
+	}
+
+	/**
+	 * @param flow the id of the flow
+	 * @param flag one of the TCP flags, like {@link #SYN}
+	 * @return the number of packets of the flow with this flag set
+	 */
+	public int getFlagCount(int flow, int flag) {
+		return flagCounts[flow * FLAGS + Integer.numberOfTrailingZeros(flag)];
+	}
+
+	/**
+	 * @param flow the id of the flow
+	 * @return true if one of the packets of the flow is an attack
+	 */
+	public boolean isAttack(int flow) {
+		return attack.get(flow);
+	}
+
+	private static double std(double m2, long count) {
+		return count > 1 ? Math.sqrt(m2 / (count - 1)) : 0;
+	}
+}
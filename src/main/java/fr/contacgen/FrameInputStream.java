@@ -0,0 +1,106 @@
+package fr.contacgen;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Input stream over the output frames of a docker command.
+ * Docker pushes the frames from its own thread while another thread reads them,
+ * so a capture written on the standard output can be parsed while it is taken.
+ * The queue is bounded: a slow reader slows docker down instead of filling the heap.
+ */
+public class FrameInputStream extends InputStream {
+	private static final byte[] END = new byte[0];
+	private static final int QUEUE_SIZE = 1024;
+
+	private final BlockingQueue<byte[]> frames = new ArrayBlockingQueue<>(QUEUE_SIZE);
+	private volatile boolean closed = false;
+	private volatile long received = 0;
+	private byte[] current = null;
+	private int position = 0;
+
+	/**
+	 * Adds a frame payload at the end of the stream, waiting for room in the queue.
+	 * Payloads offered once the stream is closed are dropped.
+	 *
+	 * @param payload the bytes of the frame
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void offer(byte[] payload) throws InterruptedException {
+		if(payload.length == 0) return;
+		while(!closed) {
+			if(frames.offer(payload, 100, TimeUnit.MILLISECONDS)) {
+				received += payload.length;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of bytes queued so far, frames are offered by a single thread
+	 */
+	public long getBytesReceived() {
+		return received;
+	}
+
+	/**
+	 * Marks the end of the stream, the reader sees it once the queued frames are read.
+	 */
+	public void finish() {
+		try {
+			while(!closed && !frames.offer(END, 100, TimeUnit.MILLISECONDS));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		if(!next()) return -1;
+		return current[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(len == 0) return 0;
+		if(!next()) return -1;
+		int n = Math.min(len, current.length - position);
+		System.arraycopy(current, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return current == null || current == END ? 0 : current.length - position;
+	}
+
+	/**
+	 * Stops reading, frames received from now on are dropped.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		frames.clear();
+	}
+
+	/**
+	 * @return false at the end of the stream
+	 */
+	private boolean next() throws IOException {
+		if(current == END || closed) return false;
+		if(current != null && position < current.length) return true;
+		try {
+			current = frames.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for docker output");
+		}
+		position = 0;
+		return current != END;
+	}
+}
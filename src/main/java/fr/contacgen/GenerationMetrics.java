@@ -0,0 +1,181 @@
+package fr.contacgen;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and stage durations of a data set generation.
+ * Every handler, runner and backend working on the same generation adds to
+ * the same instance, so values are summed over concurrent runs.
+ * The metrics can be read through JMX once registered, or as a JSON summary.
+ */
+public class GenerationMetrics implements GenerationMetricsMBean {
+	public static final String PULL = "pull";
+	public static final String START = "start";
+	public static final String CAPTURE = "capture";
+	public static final String ATTACK = "attack";
+	public static final String COPY = "copy";
+	public static final String PARSE = "parse";
+	public static final String TEARDOWN = "teardown";
+	public static final String CONVERT = "convert";
+	public static final String TOTAL = "total";
+
+	private final Map<String, LongAdder> stages = new LinkedHashMap<>();
+	private final LongAdder packets = new LongAdder();
+	private final LongAdder nonIp = new LongAdder();
+	private final LongAdder attacks = new LongAdder();
+	private final LongAdder bytesCopied = new LongAdder();
+	private ObjectName name = null;
+
+	/**
+	 * Adds time spent in a stage.
+	 *
+	 * @param stage the name of the stage
+	 * @param startNanos the value of {@link System#nanoTime()} when the stage started
+	 */
+	public void stage(String stage, long startNanos) {
+		long elapsed = System.nanoTime() - startNanos;
+		LongAdder total;
+		synchronized(stages) {
+			total = stages.computeIfAbsent(stage, (String s) -> new LongAdder());
+		}
+		total.add(elapsed);
+	}
+
+	/**
+	 * Counts a parsed IP packet.
+	 *
+	 * @param attack whether the packet belongs to the attack
+	 */
+	public void packet(boolean attack) {
+		packets.increment();
+		if(attack) attacks.increment();
+	}
+
+	/**
+	 * Counts a frame skipped because it does not carry an IP packet.
+	 */
+	public void nonIp() {
+		nonIp.increment();
+	}
+
+	/**
+	 * Counts bytes copied out of a container.
+	 *
+	 * @param bytes the number of bytes
+	 */
+	public void copied(long bytes) {
+		bytesCopied.add(bytes);
+	}
+
+	/**
+	 * Registers these metrics on the platform MBean server, replacing the ones
+	 * registered under the same name.
+	 *
+	 * @param id the name of the generation
+	 */
+	public void register(String id) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			name = new ObjectName("fr.contacgen:type=GenerationMetrics,name=" + ObjectName.quote(id));
+			if(server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(this, name);
+		} catch (JMException e) {
+			System.out.println("Could not register the generation metrics: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Removes these metrics from the platform MBean server.
+	 */
+	public void unregister() {
+		if(name == null) return;
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if(server.isRegistered(name))
+				server.unregisterMBean(name);
+		} catch (JMException e) {
+			// Already gone
+		}
+		name = null;
+	}
+
+	@Override
+	public String[] getStages() {
+		synchronized(stages) {
+			return stages.keySet().toArray(new String[0]);
+		}
+	}
+
+	@Override
+	public long getStageMillis(String stage) {
+		LongAdder total;
+		synchronized(stages) {
+			total = stages.get(stage);
+		}
+		return total == null ? 0 : total.sum() / 1000000;
+	}
+
+	@Override
+	public long getPacketsParsed() {
+		return packets.sum();
+	}
+
+	@Override
+	public long getNonIpSkipped() {
+		return nonIp.sum();
+	}
+
+	@Override
+	public long getAttackPackets() {
+		return attacks.sum();
+	}
+
+	@Override
+	public long getBenignPackets() {
+		return packets.sum() - attacks.sum();
+	}
+
+	@Override
+	public long getBytesCopied() {
+		return bytesCopied.sum();
+	}
+
+	@Override
+	public double getPacketsPerSecond() {
+		LongAdder parse;
+		synchronized(stages) {
+			parse = stages.get(PARSE);
+		}
+		if(parse == null || parse.sum() == 0) return 0;
+		return packets.sum() * 1e9 / parse.sum();
+	}
+
+	@Override
+	public String getSummary() {
+		List<String> stageValues = new ArrayList<>();
+		for(String stage : getStages())
+			stageValues.add("\"" + stage + "\":" + getStageMillis(stage));
+		return "{\"stagesMillis\":{" + String.join(",", stageValues) + "}"
+				+ ",\"packetsParsed\":" + getPacketsParsed()
+				+ ",\"packetsPerSecond\":" + Math.round(getPacketsPerSecond())
+				+ ",\"nonIpSkipped\":" + getNonIpSkipped()
+				+ ",\"attackPackets\":" + getAttackPackets()
+				+ ",\"benignPackets\":" + getBenignPackets()
+				+ ",\"bytesCopied\":" + getBytesCopied() + "}";
+	}
+
+	@Override
+	public String toString() {
+		return getSummary();
+	}
+}
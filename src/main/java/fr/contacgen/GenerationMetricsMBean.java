@@ -0,0 +1,37 @@
+package fr.contacgen;
+
+/**
+ * JMX view of {@link GenerationMetrics}.
+ */
+public interface GenerationMetricsMBean {
+	/**
+	 * @return the names of the measured stages, in the order they first ran
+	 */
+	String[] getStages();
+
+	/**
+	 * @param stage the name of a stage
+	 * @return the time spent in the stage in milliseconds, summed over all the runs
+	 */
+	long getStageMillis(String stage);
+
+	long getPacketsParsed();
+
+	long getNonIpSkipped();
+
+	long getAttackPackets();
+
+	long getBenignPackets();
+
+	long getBytesCopied();
+
+	/**
+	 * @return the number of packets parsed per second of the parse stage
+	 */
+	double getPacketsPerSecond();
+
+	/**
+	 * @return all the metrics as a JSON object
+	 */
+	String getSummary();
+}
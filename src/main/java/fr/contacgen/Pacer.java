@@ -0,0 +1,270 @@
+package fr.contacgen;
+
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Token bucket pacing the packets of an attack.
+ * The bucket fills at the rate given by the profile, in packets or bytes per second,
+ * and holds at most the burst size. Each packet is scheduled at the time the bucket
+ * has its tokens, the sender parks until then instead of spinning, and a late
+ * wake up is caught up by the next packets, so the average rate holds at high rates
+ * and the schedule only depends on the profile, not on the speed of the host.
+ */
+public class Pacer {
+	// Time a sender that was not ready can catch up on
+	private static final long SLACK = 1000000;
+	// Longest time the profile is taken as constant when filling the bucket
+	private static final long STEP = 1000000;
+
+	public enum Unit {
+		PACKETS, BYTES;
+	}
+
+	/**
+	 * Shape of the rate over time, as a factor of the rate of the pacer.
+	 */
+	public interface Profile {
+		/**
+		 * @param elapsed the time since the first packet in nanoseconds
+		 * @return the factor of the rate, 0 to pause
+		 */
+		double factor(long elapsed);
+
+		/**
+		 * @param other another profile
+		 * @return the profile applying both factors
+		 */
+		default Profile times(Profile other) {
+			return (long elapsed) -> factor(elapsed) * other.factor(elapsed);
+		}
+
+		/**
+		 * @return the profile keeping the rate constant
+		 */
+		static Profile constant() {
+			return (long elapsed) -> 1;
+		}
+
+		/**
+		 * @param rampUp the time to reach the full rate in nanoseconds, positive
+		 * @return the profile raising the rate linearly from zero
+		 * @throws IllegalArgumentException if the time is not positive
+		 */
+		static Profile ramp(long rampUp) {
+			if(rampUp <= 0)
+				throw new IllegalArgumentException("The ramp up time must be positive.");
+			return (long elapsed) -> elapsed >= rampUp ? 1 : (double) elapsed / rampUp;
+		}
+
+		/**
+		 * @param on the time sending at full rate in nanoseconds, positive
+		 * @param off the time not sending in nanoseconds
+		 * @return the profile alternating bursts and pauses
+		 * @throws IllegalArgumentException if the on time is not positive or the off time is negative
+		 */
+		static Profile onOff(long on, long off) {
+			if(on <= 0 || off < 0)
+				throw new IllegalArgumentException("The on time must be positive and the off time not negative.");
+			return (long elapsed) -> elapsed % (on + off) < on ? 1 : 0;
+		}
+
+		/**
+		 * Parses a comma separated list of profiles applied together:
+		 * constant, ramp:SECONDS or onoff:ON_SECONDS:OFF_SECONDS.
+		 *
+		 * @param spec the profiles
+		 * @return the profile
+		 * @throws IllegalArgumentException if a profile is unknown or has invalid times
+		 */
+		static Profile parse(String spec) {
+			Profile profile = constant();
+			for(String part : spec.split(",")) {
+				String[] args = part.trim().toLowerCase(Locale.ROOT).split(":");
+				switch(args[0]) {
+				case "":
+				case "constant":
+					break;
+				case "ramp":
+					if(args.length != 2) throw new IllegalArgumentException("Expected ramp:SECONDS, got '" + part + "'.");
+					profile = profile.times(ramp(seconds(args[1])));
+					break;
+				case "onoff":
+					if(args.length != 3) throw new IllegalArgumentException("Expected onoff:ON:OFF, got '" + part + "'.");
+					profile = profile.times(onOff(seconds(args[1]), seconds(args[2])));
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown rate profile '" + part + "'.");
+				}
+			}
+			return profile;
+		}
+	}
+
+	private final double rate;
+	private final Unit unit;
+	private Profile profile = Profile.constant();
+	private long burst = 1;
+
+	private long origin = 0;
+	private boolean started = false;
+	// Time of the last packet since the first one, and the tokens left in the bucket then
+	private long next = 0;
+	private double tokens = 1;
+
+	/**
+	 * @param rate the number of units per second at full rate
+	 * @param unit whether packets or bytes are counted
+	 */
+	public Pacer(double rate, Unit unit) {
+		if(!(rate > 0))
+			throw new IllegalArgumentException("The rate must be positive.");
+		this.rate = rate;
+		this.unit = unit;
+	}
+
+	/**
+	 * Parses a rate: a number followed by pps for packets or Bps for bytes per second,
+	 * packets when no unit is given. The number can end with k, M or G.
+	 *
+	 * @param spec the rate, like 5000pps, 1.5kpps or 10MBps
+	 * @return a pacer at this rate
+	 * @throws IllegalArgumentException if the rate cannot be parsed
+	 */
+	public static Pacer parse(String spec) {
+		String value = spec.trim();
+		Unit unit = Unit.PACKETS;
+		if(value.endsWith("Bps")) {
+			unit = Unit.BYTES;
+			value = value.substring(0, value.length() - 3);
+		} else if(value.endsWith("pps")) {
+			value = value.substring(0, value.length() - 3);
+		}
+		double multiplier = 1;
+		if(value.endsWith("k")) multiplier = 1e3;
+		else if(value.endsWith("M")) multiplier = 1e6;
+		else if(value.endsWith("G")) multiplier = 1e9;
+		if(multiplier != 1) value = value.substring(0, value.length() - 1);
+		try {
+			return new Pacer(Double.parseDouble(value) * multiplier, unit);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid rate '" + spec + "', expected like 5000pps or 10MBps.");
+		}
+	}
+
+	/**
+	 * Sets how the rate changes over time, constant by default.
+	 *
+	 * @param profile the profile of the rate
+	 * @return this pacer
+	 */
+	public Pacer setProfile(Profile profile) {
+		this.profile = profile;
+		return this;
+	}
+
+	/**
+	 * Sets how many units can be sent back to back, 1 by default.
+	 *
+	 * @param burst the size of the bucket
+	 * @return this pacer
+	 */
+	public Pacer setBurst(long burst) {
+		if(burst < 1)
+			throw new IllegalArgumentException("The burst must be at least 1.");
+		this.burst = burst;
+		this.tokens = burst;
+		return this;
+	}
+
+	/**
+	 * Waits until a packet can be sent.
+	 *
+	 * @param bytes the size of the packet
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void pace(int bytes) throws InterruptedException {
+		acquire(unit == Unit.BYTES ? bytes : 1);
+	}
+
+	/**
+	 * Waits until the bucket holds the given number of units and takes them.
+	 *
+	 * @param units the number of units
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void acquire(long units) throws InterruptedException {
+		long at = reserve(units, System.nanoTime());
+		long wait;
+		while((wait = at - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(this, wait);
+			if(Thread.interrupted())
+				throw new InterruptedException();
+		}
+	}
+
+	/**
+	 * Schedules a packet without waiting, as if the sender was always ready.
+	 * Used to time packets that are generated rather than sent.
+	 *
+	 * @param bytes the size of the packet
+	 * @return the time of the packet since the first one in nanoseconds
+	 * @throws InterruptedException if interrupted while the profile pauses the rate
+	 */
+	public synchronized long schedule(int bytes) throws InterruptedException {
+		started = true;
+		return take(unit == Unit.BYTES ? bytes : 1);
+	}
+
+	/**
+	 * @return the nanoTime the units can be sent at
+	 */
+	private synchronized long reserve(long units, long now) throws InterruptedException {
+		if(!started) {
+			origin = now;
+			started = true;
+		}
+		// The bucket of a sender that was idle filled up meanwhile, but the schedule does not
+		// fall more than its slack behind
+		long late = now - origin - SLACK - next;
+		if(late > 0) {
+			tokens = Math.min(Math.max(burst, units), tokens + rate * profile.factor(next) * late / 1e9);
+			next += late;
+		}
+		return origin + take(units);
+	}
+
+	/**
+	 * Waits in the schedule until the bucket holds the units and takes them.
+	 *
+	 * @return the time the units can be sent at since the first packet
+	 * @throws InterruptedException if interrupted while stepping through the profile, which may never send again
+	 */
+	private long take(long units) throws InterruptedException {
+		double capacity = Math.max(burst, units);
+		while(tokens < units) {
+			if(Thread.interrupted())
+				throw new InterruptedException();
+			double perSecond = rate * profile.factor(next);
+			double filled = perSecond * STEP / 1e9;
+			if(tokens + filled >= units) {
+				next += (long) Math.ceil((units - tokens) * 1e9 / perSecond);
+				tokens = units;
+				break;
+			}
+			// Pauses and slow parts of the profile fill the bucket step by step
+			tokens = Math.min(capacity, tokens + filled);
+			next += STEP;
+		}
+		tokens -= units;
+		return next;
+	}
+
+	private static long seconds(String value) {
+		try {
+			return (long) (Double.parseDouble(value) * 1e9);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid number of seconds '" + value + "'.");
+		}
+	}
+}
@@ -1,116 +1,130 @@
 package fr.contacgen;
 
-import java.io.IOException;
+/**
+ * A cursor over one row of a {@link PacketTable}.
+ * The same instance is moved from row to row, so it must not be kept once
+ * the consumer it was given to returns.
+ */
+public class PacketData {
+	private final PacketTable table;
+	private int row;
 
-import io.pkts.buffer.Buffer;
-import io.pkts.packet.IPPacket;
-import io.pkts.packet.IPv4Packet;
-import io.pkts.packet.IPv6Packet;
-import io.pkts.packet.Packet;
-import io.pkts.protocol.Protocol;
+	public PacketData(PacketTable table) {
+		this.table = table;
+	}
 
-public class PacketData {
-	private final String srcIP, dstIP, type, checksum, content;
-	private final int version, headerLength, totalLength, id, fragmentOffset, TTL;
-	private final long protocol, timestamp, timer;
-	private final boolean attack;
-
-	public PacketData(Packet packet, long timer) throws IOException {
-		IPPacket p;
-		if(packet.hasProtocol(Protocol.IPv4)) {
-			p = (IPv4Packet) packet.getPacket(Protocol.IPv4);
-			this.checksum = Integer.toHexString(((IPv4Packet) p).getIpChecksum());
-			this.TTL = ((IPv4Packet) p).getTimeToLive();
-			this.type = ((IPv4Packet) p).getProtocol().getName();
-		} else if(packet.hasProtocol(Protocol.IPv6)) {
-			p = (IPv6Packet) packet.getPacket(Protocol.IPv6);
-			this.checksum = "null";
-			this.TTL = ((IPv6Packet) p).getHopLimit();
-			this.type = ((IPv6Packet) p).getProtocol().getName();
-		} else throw new IllegalArgumentException("Not an IPv4 or IPv6 packet !");
-		this.srcIP = p.getSourceIP();
-		this.dstIP = p.getDestinationIP();
-
-		this.version = p.getVersion();
-		this.headerLength = p.getHeaderLength();
-		this.totalLength = p.getTotalIPLength();
-		this.id = p.getIdentification();
-		this.fragmentOffset = p.getFragmentOffset();
-		this.protocol = p.getProtocol().getLinkType() == null ? 0 : p.getProtocol().getLinkType();
-		this.timestamp = p.getArrivalTime();
-		this.attack = checkAttack(p.getPayload());
-		this.content = p.getPayload().dumpAsHex();
-		this.timer = timer;
-	}
-
-	private static final boolean checkAttack(Buffer payload) throws IOException {
-		if(payload.getReadableBytes() < UDPDos.MAGIC.length + 8)
-			return false;
-		for(int i = 0; i < UDPDos.MAGIC.length; i++) {
-			// There seems to be 8 bytes of additional header
-			if(payload.getByte(i + 8) != UDPDos.MAGIC[i])
-				return false;
-		}
-		return true;
+	/**
+	 * Moves the cursor to the given row.
+	 *
+	 * @param row the row of the table
+	 * @return this cursor
+	 */
+	public PacketData at(int row) {
+		this.row = row;
+		return this;
+	}
+
+	public int getRow() {
+		return row;
 	}
 
 	public String getSrcIP() {
-		return srcIP;
+		return table.getSrcIP(row);
 	}
 
 	public String getDstIP() {
-		return dstIP;
+		return table.getDstIP(row);
 	}
 
 	public String getType() {
-		return type;
+		return table.getType(row);
 	}
 
 	public String getChecksum() {
-		return checksum;
+		return table.getChecksum(row);
 	}
 
 	public int getVersion() {
-		return version;
+		return table.getVersion(row);
 	}
 
 	public int getHeaderLength() {
-		return headerLength;
+		return table.getHeaderLength(row);
 	}
 
 	public int getTotalLength() {
-		return totalLength;
+		return table.getTotalLength(row);
 	}
 
 	public int getId() {
-		return id;
+		return table.getId(row);
 	}
 
 	public int getFragmentOffset() {
-		return fragmentOffset;
+		return table.getFragmentOffset(row);
 	}
 
 	public int getTTL() {
-		return TTL;
+		return table.getTTL(row);
+	}
+
+	public int getTransport() {
+		return table.getTransport(row);
+	}
+
+	public int getTransportLength() {
+		return table.getTransportLength(row);
+	}
+
+	public int getSrcPort() {
+		return table.getSrcPort(row);
+	}
+
+	public int getDstPort() {
+		return table.getDstPort(row);
+	}
+
+	public int getTCPFlags() {
+		return table.getTCPFlags(row);
+	}
+
+	public int getTCPWindow() {
+		return table.getTCPWindow(row);
+	}
+
+	public int getUDPLength() {
+		return table.getUDPLength(row);
+	}
+
+	public int getICMPType() {
+		return table.getICMPType(row);
+	}
+
+	public int getICMPCode() {
+		return table.getICMPCode(row);
 	}
 
 	public long getTimer() {
-		return timer;
+		return table.getTimer(row);
 	}
 
 	public long getProtocol() {
-		return protocol;
+		return table.getProtocol(row);
 	}
 
 	public long getTimestamp() {
-		return timestamp;
+		return table.getTimestamp(row);
+	}
+
+	public String getContent(PayloadEncoding encoding) {
+		return table.getContent(row, encoding);
 	}
 
-	public String getContentHex() {
-		return content;
+	public void getFeatures(PayloadFeatures features, double[] values, int at) {
+		table.getFeatures(row, features, values, at);
 	}
 
 	public boolean isAttack() {
-		return attack;
+		return table.isAttack(row);
 	}
 }
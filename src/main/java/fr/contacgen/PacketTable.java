@@ -0,0 +1,458 @@
+package fr.contacgen;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.pkts.protocol.Protocol;
+
+/**
+ * Column store of the parsed packets.
+ * Every packet field lives in its own primitive array, addresses and protocol
+ * names are dictionary encoded, so a row costs a few dozen bytes of heap
+ * instead of one object per packet and per field.
+ * Payloads are kept as raw bytes, up to a configurable limit, and only
+ * encoded when they are read.
+ */
+public class PacketTable {
+	private static final int INITIAL_CAPACITY = 1024;
+	// Largest array the JVMs allocate
+	private static final int MAX_PAYLOADS = Integer.MAX_VALUE - 8;
+
+	private int size = 0;
+	private int[] version, headerLength, totalLength, id, fragmentOffset, ttl, checksum;
+	private int[] srcIp, dstIp, type;
+	private int[] transport, transportLength, srcPort, dstPort, tcpFlags, tcpWindow, udpLength, icmp;
+	private long[] protocol, timestamp, timer;
+	private int[] payloadStart, payloadLength;
+	private byte[] payloads = new byte[0];
+	private int payloadsSize = 0, payloadLimit = Integer.MAX_VALUE;
+	private final BitSet attack = new BitSet();
+	private AttackIndex labels = null;
+
+	private final AddressDictionary addresses = new AddressDictionary();
+	private final List<String> types = new ArrayList<>();
+
+	public PacketTable() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Appends an IP packet to the table.
+	 *
+	 * @param record the decoded record, must be an IPv4 or IPv6 packet
+	 * @param timer the time since the start of the capture in milliseconds
+	 * @return the row of the packet
+	 */
+	public int add(PcapRecord record, long timer) {
+		// Type and protocol keep the values pkts used to give for the IP layer
+		Protocol ipProtocol;
+		if(record.getVersion() == 4) {
+			ipProtocol = Protocol.IPv4;
+		} else if(record.getVersion() == 6) {
+			ipProtocol = Protocol.IPv6;
+		} else throw new IllegalArgumentException("Not an IPv4 or IPv6 packet !");
+
+		if(size == version.length)
+			allocate(size + (size >> 1));
+		int row = size++;
+
+		this.version[row] = record.getVersion();
+		this.headerLength[row] = record.getHeaderLength();
+		this.totalLength[row] = record.getTotalLength();
+		this.id[row] = record.getIdentification();
+		this.fragmentOffset[row] = record.getFragmentOffset();
+		this.ttl[row] = record.getTTL();
+		this.checksum[row] = record.getChecksum();
+		this.srcIp[row] = addresses.source(record);
+		this.dstIp[row] = addresses.destination(record);
+		this.type[row] = typeId(ipProtocol.getName());
+		this.transport[row] = record.getProtocol();
+		this.transportLength[row] = record.getPayloadLength();
+		this.srcPort[row] = record.getSourcePort();
+		this.dstPort[row] = record.getDestinationPort();
+		this.tcpFlags[row] = record.getTCPFlags();
+		this.tcpWindow[row] = record.getTCPWindow();
+		this.udpLength[row] = record.getUDPLength();
+		this.icmp[row] = record.getICMPType() << 8 | record.getICMPCode();
+		this.protocol[row] = ipProtocol.getLinkType();
+		this.timestamp[row] = record.getTimestamp();
+		this.timer[row] = timer;
+		this.attack.set(row, labels != null && !labels.isEmpty() ? labels.isAttack(record) : checkAttack(record));
+
+		int length = Math.min(record.getPayloadLength(), payloadLimit);
+		reservePayloads((long) payloadsSize + length);
+		this.payloadStart[row] = payloadsSize;
+		this.payloadLength[row] = record.getPayload(payloads, payloadsSize, length);
+		payloadsSize += length;
+		return row;
+	}
+
+	/**
+	 * Appends all the rows of another table, in order.
+	 *
+	 * @param other the table to copy the rows from
+	 */
+	public void append(PacketTable other) {
+		int[] addressIds = addresses.remap(other.addresses);
+		int[] typeIds = new int[other.types.size()];
+		for(int i = 0; i < typeIds.length; i++)
+			typeIds[i] = typeId(other.types.get(i));
+
+		if(size + other.size > version.length)
+			allocate(Math.max(size + other.size, size + (size >> 1)));
+		reservePayloads((long) payloadsSize + other.payloadsSize);
+
+		int n = other.size;
+		System.arraycopy(other.version, 0, version, size, n);
+		System.arraycopy(other.headerLength, 0, headerLength, size, n);
+		System.arraycopy(other.totalLength, 0, totalLength, size, n);
+		System.arraycopy(other.id, 0, id, size, n);
+		System.arraycopy(other.fragmentOffset, 0, fragmentOffset, size, n);
+		System.arraycopy(other.ttl, 0, ttl, size, n);
+		System.arraycopy(other.checksum, 0, checksum, size, n);
+		System.arraycopy(other.transport, 0, transport, size, n);
+		System.arraycopy(other.transportLength, 0, transportLength, size, n);
+		System.arraycopy(other.srcPort, 0, srcPort, size, n);
+		System.arraycopy(other.dstPort, 0, dstPort, size, n);
+		System.arraycopy(other.tcpFlags, 0, tcpFlags, size, n);
+		System.arraycopy(other.tcpWindow, 0, tcpWindow, size, n);
+		System.arraycopy(other.udpLength, 0, udpLength, size, n);
+		System.arraycopy(other.icmp, 0, icmp, size, n);
+		System.arraycopy(other.protocol, 0, protocol, size, n);
+		System.arraycopy(other.timestamp, 0, timestamp, size, n);
+		System.arraycopy(other.timer, 0, timer, size, n);
+		System.arraycopy(other.payloadLength, 0, payloadLength, size, n);
+		System.arraycopy(other.payloads, 0, payloads, payloadsSize, other.payloadsSize);
+		for(int row = 0; row < n; row++) {
+			srcIp[size + row] = addressIds[other.srcIp[row]];
+			dstIp[size + row] = addressIds[other.dstIp[row]];
+			type[size + row] = typeIds[other.type[row]];
+			payloadStart[size + row] = other.payloadStart[row] + payloadsSize;
+			attack.set(size + row, other.attack.get(row));
+		}
+		size += n;
+		payloadsSize += other.payloadsSize;
+	}
+
+	/**
+	 * Removes all the rows, the dictionaries are kept.
+	 */
+	public void clear() {
+		attack.clear();
+		size = 0;
+		payloadsSize = 0;
+	}
+
+	/**
+	 * Sets how many payload bytes are kept for each packet added from now on.
+	 *
+	 * @param payloadLimit the number of bytes, 0 to drop payloads
+	 */
+	public void setPayloadLimit(int payloadLimit) {
+		this.payloadLimit = payloadLimit;
+	}
+
+	public int getPayloadLimit() {
+		return payloadLimit;
+	}
+
+	/**
+	 * Sets the flows packets added from now on are labelled attacks by.
+	 * Without flows, or with none recorded, packets carrying {@link UDPDos#MAGIC} are the attacks.
+	 *
+	 * @param labels the flows of the attacks, or null
+	 */
+	public void setLabels(AttackIndex labels) {
+		this.labels = labels;
+	}
+
+	public AttackIndex getLabels() {
+		return labels;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private void allocate(int capacity) {
+		version = grow(version, capacity);
+		headerLength = grow(headerLength, capacity);
+		totalLength = grow(totalLength, capacity);
+		id = grow(id, capacity);
+		fragmentOffset = grow(fragmentOffset, capacity);
+		ttl = grow(ttl, capacity);
+		checksum = grow(checksum, capacity);
+		srcIp = grow(srcIp, capacity);
+		dstIp = grow(dstIp, capacity);
+		type = grow(type, capacity);
+		transport = grow(transport, capacity);
+		transportLength = grow(transportLength, capacity);
+		srcPort = grow(srcPort, capacity);
+		dstPort = grow(dstPort, capacity);
+		tcpFlags = grow(tcpFlags, capacity);
+		tcpWindow = grow(tcpWindow, capacity);
+		udpLength = grow(udpLength, capacity);
+		icmp = grow(icmp, capacity);
+		protocol = grow(protocol, capacity);
+		timestamp = grow(timestamp, capacity);
+		timer = grow(timer, capacity);
+		payloadStart = grow(payloadStart, capacity);
+		payloadLength = grow(payloadLength, capacity);
+	}
+
+	/**
+	 * Grows the payload bytes to hold the given number of bytes, doubling them up to the largest array.
+	 *
+	 * @throws IllegalStateException if the payloads do not fit in one array
+	 */
+	private void reservePayloads(long needed) {
+		if(needed <= payloads.length) return;
+		if(needed > MAX_PAYLOADS)
+			throw new IllegalStateException("The payloads of the table exceed " + MAX_PAYLOADS
+					+ " bytes, keep fewer payload bytes per packet or generate fewer packets.");
+		payloads = Arrays.copyOf(payloads, (int) Math.min(Math.max(needed, payloads.length * 2L), MAX_PAYLOADS));
+	}
+
+	private static int[] grow(int[] column, int capacity) {
+		return column == null ? new int[capacity] : Arrays.copyOf(column, capacity);
+	}
+
+	private static long[] grow(long[] column, int capacity) {
+		return column == null ? new long[capacity] : Arrays.copyOf(column, capacity);
+	}
+
+	private int typeId(String name) {
+		int id = types.indexOf(name);
+		if(id >= 0) return id;
+		types.add(name);
+		return types.size() - 1;
+	}
+
+	private static final boolean checkAttack(PcapRecord record) {
+		if(record.getPayloadLength() < UDPDos.MAGIC.length + 8)
+			return false;
+		for(int i = 0; i < UDPDos.MAGIC.length; i++) {
+			// There seems to be 8 bytes of additional header
+			if(record.getPayloadByte(i + 8) != UDPDos.MAGIC[i])
+				return false;
+		}
+		return true;
+	}
+
+	public String getSrcIP(int row) {
+		return addresses.get(srcIp[row]);
+	}
+
+	public String getDstIP(int row) {
+		return addresses.get(dstIp[row]);
+	}
+
+	public String getType(int row) {
+		return types.get(type[row]);
+	}
+
+	public String getChecksum(int row) {
+		return version[row] == 4 ? Integer.toHexString(checksum[row]) : "null";
+	}
+
+	public int getVersion(int row) {
+		return version[row];
+	}
+
+	public int getHeaderLength(int row) {
+		return headerLength[row];
+	}
+
+	public int getTotalLength(int row) {
+		return totalLength[row];
+	}
+
+	public int getId(int row) {
+		return id[row];
+	}
+
+	public int getFragmentOffset(int row) {
+		return fragmentOffset[row];
+	}
+
+	public int getTTL(int row) {
+		return ttl[row];
+	}
+
+	/**
+	 * @param row the row of the packet
+	 * @return the IPv4 protocol or the IPv6 next header, like 6 for TCP
+	 */
+	public int getTransport(int row) {
+		return transport[row];
+	}
+
+	/**
+	 * @param row the row of the packet
+	 * @return the number of bytes captured after the IP headers, where the transport header starts
+	 */
+	public int getTransportLength(int row) {
+		return transportLength[row];
+	}
+
+	public int getSrcPort(int row) {
+		return srcPort[row];
+	}
+
+	public int getDstPort(int row) {
+		return dstPort[row];
+	}
+
+	public int getTCPFlags(int row) {
+		return tcpFlags[row];
+	}
+
+	public int getTCPWindow(int row) {
+		return tcpWindow[row];
+	}
+
+	public int getUDPLength(int row) {
+		return udpLength[row];
+	}
+
+	public int getICMPType(int row) {
+		return icmp[row] >>> 8;
+	}
+
+	public int getICMPCode(int row) {
+		return icmp[row] & 0xFF;
+	}
+
+	public long getTimer(int row) {
+		return timer[row];
+	}
+
+	public long getProtocol(int row) {
+		return protocol[row];
+	}
+
+	public long getTimestamp(int row) {
+		return timestamp[row];
+	}
+
+	/**
+	 * @param row the row of the packet
+	 * @param encoding the payload encoding
+	 * @return the encoded payload of the packet
+	 */
+	public String getContent(int row, PayloadEncoding encoding) {
+		return encoding.encode(payloads, payloadStart[row], payloadLength[row]);
+	}
+
+	/**
+	 * @param row the row of the packet
+	 * @param features the payload features
+	 * @param values the values of the row to fill
+	 * @param at the index of the first feature in the values
+	 */
+	public void getFeatures(int row, PayloadFeatures features, double[] values, int at) {
+		features.compute(payloads, payloadStart[row], payloadLength[row], values, at);
+	}
+
+	public boolean isAttack(int row) {
+		return attack.get(row);
+	}
+
+	/**
+	 * Gives an id to every distinct address.
+	 * IPv4 addresses are looked up by their raw value in an open addressing
+	 * table so the textual form is only built once per address.
+	 */
+	private static class AddressDictionary {
+		private final List<String> values = new ArrayList<>();
+		private final Map<String, Integer> ipv6 = new HashMap<>();
+		private int[] keys = new int[64], ids = new int[64];
+		private int ipv4Count = 0;
+
+		public int source(PcapRecord record) {
+			if(record.getVersion() == 4)
+				return ipv4(record.getSourceIPv4(), record, true);
+			return ipv6(record.getSourceIP());
+		}
+
+		public int destination(PcapRecord record) {
+			if(record.getVersion() == 4)
+				return ipv4(record.getDestinationIPv4(), record, false);
+			return ipv6(record.getDestinationIP());
+		}
+
+		public String get(int id) {
+			return values.get(id);
+		}
+
+		/**
+		 * @return for every id of the other dictionary the id of the same address in this one
+		 */
+		public int[] remap(AddressDictionary other) {
+			int[] mapping = new int[other.values.size()];
+			for(int i = 0; i < other.keys.length; i++) {
+				if(other.ids[i] == 0) continue;
+				int id = other.ids[i] - 1;
+				int slot = slot(other.keys[i]);
+				mapping[id] = ids[slot] != 0 ? ids[slot] - 1 : insert(slot, other.keys[i], other.values.get(id));
+			}
+			for(Map.Entry<String, Integer> entry : other.ipv6.entrySet())
+				mapping[entry.getValue()] = ipv6(entry.getKey());
+			return mapping;
+		}
+
+		private int ipv4(int address, PcapRecord record, boolean source) {
+			int slot = slot(address);
+			if(ids[slot] != 0) return ids[slot] - 1;
+			return insert(slot, address, source ? record.getSourceIP() : record.getDestinationIP());
+		}
+
+		private int slot(int address) {
+			int mask = keys.length - 1;
+			int slot = mix(address) & mask;
+			// ids are stored plus one so that 0 marks an empty slot
+			while(ids[slot] != 0 && keys[slot] != address)
+				slot = (slot + 1) & mask;
+			return slot;
+		}
+
+		private int insert(int slot, int address, String text) {
+			values.add(text);
+			keys[slot] = address;
+			ids[slot] = values.size();
+			if(++ipv4Count * 2 > keys.length) rehash();
+			return values.size() - 1;
+		}
+
+		private int ipv6(String address) {
+			Integer id = ipv6.get(address);
+			if(id != null) return id;
+			values.add(address);
+			ipv6.put(address, values.size() - 1);
+			return values.size() - 1;
+		}
+
+		private void rehash() {
+			int[] oldKeys = keys, oldIds = ids;
+			keys = new int[oldKeys.length * 2];
+			ids = new int[oldKeys.length * 2];
+			int mask = keys.length - 1;
+			for(int i = 0; i < oldKeys.length; i++) {
+				if(oldIds[i] == 0) continue;
+				int slot = mix(oldKeys[i]) & mask;
+				while(ids[slot] != 0) slot = (slot + 1) & mask;
+				keys[slot] = oldKeys[i];
+				ids[slot] = oldIds[i];
+			}
+		}
+
+		private static int mix(int key) {
+			int h = key * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package fr.contacgen;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * How the IP payload is written into the content attribute.
+ * <ul>
+ * <li>none: the payload is not kept at all</li>
+ * <li>hex: hex dump of the whole payload</li>
+ * <li>truncated:N: hex dump of the first N bytes</li>
+ * <li>base64: base64 of the whole payload</li>
+ * </ul>
+ */
+public class PayloadEncoding {
+	public enum Mode {
+		NONE, HEX, TRUNCATED, BASE64
+	}
+
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+	private final Mode mode;
+	private final int limit;
+
+	private PayloadEncoding(Mode mode, int limit) {
+		this.mode = mode;
+		this.limit = limit;
+	}
+
+	/**
+	 * @return the default encoding, a hex dump of the whole payload
+	 */
+	public static PayloadEncoding defaultEncoding() {
+		return new PayloadEncoding(Mode.HEX, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Parses an encoding specification.
+	 *
+	 * @param spec one of none, hex, truncated:N or base64
+	 * @return the encoding
+	 * @throws IllegalArgumentException if the specification is invalid
+	 */
+	public static PayloadEncoding parse(String spec) {
+		String s = spec.trim().toLowerCase();
+		if(s.equals("none")) return new PayloadEncoding(Mode.NONE, 0);
+		if(s.equals("hex")) return defaultEncoding();
+		if(s.equals("base64")) return new PayloadEncoding(Mode.BASE64, Integer.MAX_VALUE);
+		if(s.startsWith("truncated:")) {
+			int limit = Integer.parseInt(s.substring("truncated:".length()));
+			if(limit < 0) throw new IllegalArgumentException("Negative truncation length: " + spec);
+			return new PayloadEncoding(Mode.TRUNCATED, limit);
+		}
+		throw new IllegalArgumentException("Unknown content encoding '" + spec + "'.");
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @return the maximum number of payload bytes worth keeping for this encoding
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Encodes a payload.
+	 *
+	 * @param data the array holding the payload
+	 * @param offset the index of the first payload byte
+	 * @param length the payload length
+	 * @return the encoded payload, null when nothing is kept
+	 */
+	public String encode(byte[] data, int offset, int length) {
+		length = Math.min(length, limit);
+		switch(mode) {
+		case NONE:
+			return null;
+		case BASE64:
+			ByteBuffer encoded = Base64.getEncoder().encode(ByteBuffer.wrap(data, offset, length));
+			return new String(encoded.array(), 0, encoded.limit(), StandardCharsets.US_ASCII);
+		default:
+			return hexDump(data, offset, length);
+		}
+	}
+
+	/**
+	 * Same layout as the hex dump pkts used to produce, offsets starting at 0.
+	 */
+	private static String hexDump(byte[] data, int offset, int length) {
+		if(length == 0) return "";
+		StringBuilder sb = new StringBuilder(length * 4 + (length / 16 + 1) * 14);
+		int lineStart = 0;
+		appendOffset(sb, 0);
+		for(int i = 0; i < length; i++) {
+			if(i - lineStart == 16) {
+				sb.append(' ');
+				appendPrintable(sb, data, offset + lineStart, 16);
+				appendOffset(sb, i);
+				lineStart = i;
+			}
+			byte b = data[offset + i];
+			sb.append(' ').append(HEX_DIGITS[b >>> 4 & 0xF]).append(HEX_DIGITS[b & 0xF]);
+		}
+		int lineLength = length - lineStart;
+		if(lineLength != 16) {
+			for(int i = (16 - lineLength) * 3 + 1; i > 0; i--)
+				sb.append(' ');
+			appendPrintable(sb, data, offset + lineStart, lineLength);
+		}
+		return sb.toString();
+	}
+
+	private static void appendOffset(StringBuilder sb, int offset) {
+		sb.append("\n0x0x");
+		for(int shift = 28; shift >= 0; shift -= 4)
+			sb.append(HEX_DIGITS[offset >>> shift & 0xF]);
+	}
+
+	private static void appendPrintable(StringBuilder sb, byte[] data, int offset, int length) {
+		for(int i = 0; i < length; i++) {
+			byte b = data[offset + i];
+			sb.append(b > 32 && b < 126 ? (char) b : '.');
+		}
+	}
+
+	@Override
+	public String toString() {
+		switch(mode) {
+		case TRUNCATED:
+			return "truncated:" + limit;
+		default:
+			return mode.name().toLowerCase();
+		}
+	}
+}
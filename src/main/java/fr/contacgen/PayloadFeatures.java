@@ -0,0 +1,169 @@
+package fr.contacgen;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Numeric features of the IP payload, computed from its bytes without building strings.
+ * <ul>
+ * <li>histogram: frequency of each of the 256 byte values</li>
+ * <li>entropy: Shannon entropy in bits per byte</li>
+ * <li>printable: ratio of printable ASCII bytes</li>
+ * <li>bytes:N: value of each of the first N bytes, NaN (missing) past the payload</li>
+ * <li>ngrams:N:B: counts of the byte N-grams hashed into B buckets</li>
+ * </ul>
+ * Histograms and n-grams are mostly zeros, the rows holding them are meant to be sparse.
+ */
+public class PayloadFeatures {
+	private static final int BYTE_VALUES = 256;
+
+	private boolean histogram = false, entropy = false, printable = false;
+	private int bytes = 0, ngramLength = 0, ngramBuckets = 0;
+	private final List<String> names = new ArrayList<>();
+	private final String spec;
+
+	private PayloadFeatures(String spec) {
+		this.spec = spec;
+	}
+
+	/**
+	 * Parses a comma separated list of features.
+	 *
+	 * @param spec the features, among histogram, entropy, printable, bytes:N and ngrams:N:B
+	 * @return the features
+	 * @throws IllegalArgumentException if a feature is unknown
+	 */
+	public static PayloadFeatures parse(String spec) {
+		PayloadFeatures features = new PayloadFeatures(spec.trim());
+		for(String part : spec.split(",")) {
+			String[] args = part.trim().toLowerCase().split(":");
+			switch(args[0]) {
+			case "histogram":
+				features.histogram = true;
+				break;
+			case "entropy":
+				features.entropy = true;
+				break;
+			case "printable":
+				features.printable = true;
+				break;
+			case "bytes":
+				if(args.length != 2) throw new IllegalArgumentException("Expected bytes:N, got '" + part + "'.");
+				features.bytes = positive(args[1], part);
+				break;
+			case "ngrams":
+				if(args.length != 3) throw new IllegalArgumentException("Expected ngrams:N:BUCKETS, got '" + part + "'.");
+				features.ngramLength = positive(args[1], part);
+				features.ngramBuckets = positive(args[2], part);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown payload feature '" + part + "'.");
+			}
+		}
+		features.name();
+		return features;
+	}
+
+	private static int positive(String value, String part) {
+		try {
+			int n = Integer.parseInt(value.trim());
+			if(n > 0) return n;
+		} catch (NumberFormatException e) {
+			// Reported below
+		}
+		throw new IllegalArgumentException("Expected a positive number in '" + part + "'.");
+	}
+
+	/**
+	 * Names the attributes, in the order they are filled.
+	 */
+	private void name() {
+		if(histogram) {
+			for(int i = 0; i < BYTE_VALUES; i++)
+				names.add(String.format("hist%02X", i));
+		}
+		if(entropy) names.add("entropy");
+		if(printable) names.add("printableRatio");
+		for(int i = 0; i < bytes; i++)
+			names.add("byte" + i);
+		for(int i = 0; i < ngramBuckets; i++)
+			names.add("ngram" + i);
+	}
+
+	/**
+	 * @return the names of the numeric attributes holding the features
+	 */
+	public List<String> getNames() {
+		return names;
+	}
+
+	/**
+	 * @return true if most of the values are zeros, so rows are better stored sparse
+	 */
+	public boolean isSparse() {
+		return histogram || ngramBuckets > 0;
+	}
+
+	/**
+	 * @return the maximum number of payload bytes worth keeping for these features
+	 */
+	public int getLimit() {
+		return histogram || entropy || printable || ngramBuckets > 0 ? Integer.MAX_VALUE : bytes;
+	}
+
+	/**
+	 * Computes the features of a payload.
+	 *
+	 * @param data the array holding the payload
+	 * @param offset the index of the first payload byte
+	 * @param length the payload length
+	 * @param values the values of the row
+	 * @param at the index of the first feature in the values
+	 */
+	public void compute(byte[] data, int offset, int length, double[] values, int at) {
+		if(histogram || entropy) {
+			int[] counts = new int[BYTE_VALUES];
+			for(int i = 0; i < length; i++)
+				counts[data[offset + i] & 0xFF]++;
+			if(histogram) {
+				for(int i = 0; i < BYTE_VALUES; i++)
+					values[at++] = length == 0 ? 0 : (double) counts[i] / length;
+			}
+			if(entropy) {
+				double bits = 0;
+				for(int count : counts) {
+					if(count == 0) continue;
+					double p = (double) count / length;
+					bits -= p * Math.log(p);
+				}
+				values[at++] = bits / Math.log(2);
+			}
+		}
+		if(printable) {
+			int n = 0;
+			for(int i = 0; i < length; i++) {
+				byte b = data[offset + i];
+				if(b >= 32 && b < 127) n++;
+			}
+			values[at++] = length == 0 ? 0 : (double) n / length;
+		}
+		for(int i = 0; i < bytes; i++)
+			values[at++] = i < length ? data[offset + i] & 0xFF : Double.NaN;
+		if(ngramBuckets > 0) {
+			for(int i = 0; i < ngramBuckets; i++)
+				values[at + i] = 0;
+			for(int i = 0; i + ngramLength <= length; i++) {
+				// FNV-1a over the n-gram
+				int hash = 0x811C9DC5;
+				for(int j = 0; j < ngramLength; j++)
+					hash = (hash ^ (data[offset + i + j] & 0xFF)) * 0x01000193;
+				values[at + (hash & 0x7FFFFFFF) % ngramBuckets]++;
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return spec;
+	}
+}
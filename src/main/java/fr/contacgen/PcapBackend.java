@@ -0,0 +1,30 @@
+package fr.contacgen;
+
+import static fr.contacgen.ConTacGenUtils.findPcaps;
+import static fr.contacgen.ConTacGenUtils.readPcaps;
+
+import java.io.IOException;
+
+/**
+ * Reads existing capture files, the seed is not used.
+ */
+public class PcapBackend implements CaptureBackend {
+	private final String path;
+	private final int parallelism;
+
+	/**
+	 * @param path a capture file, a directory holding capture files or a glob pattern
+	 * @param parallelism the number of threads parsing the captures
+	 */
+	public PcapBackend(String path, int parallelism) {
+		this.path = path;
+		this.parallelism = parallelism;
+	}
+
+	@Override
+	public void capture(ConTacGenPacketHandler handler, long seed) throws InterruptedException, IOException {
+		long stage = System.nanoTime();
+		readPcaps(findPcaps(path), handler, parallelism);
+		handler.getMetrics().stage(GenerationMetrics.PARSE, stage);
+	}
+}
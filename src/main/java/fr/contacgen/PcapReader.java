@@ -0,0 +1,361 @@
+package fr.contacgen;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Reads classic pcap and pcapng files without going through pkts.
+ * The file is memory-mapped and each record is decoded in place by a single
+ * reused {@link PcapRecord}, so no object is allocated per packet.
+ * Captures can also be read from a stream, records are then copied into
+ * a reused buffer.
+ */
+public class PcapReader {
+	private static final int MAGIC_MICROS = 0xA1B2C3D4;
+	private static final int MAGIC_NANOS = 0xA1B23C4D;
+	private static final int GLOBAL_HEADER_LENGTH = 24;
+	private static final int RECORD_HEADER_LENGTH = 16;
+	// Largest record read from a stream, the default snapshot length of tcpdump and dumpcap
+	static final int MAX_RECORD = 1 << 18;
+
+	// Files larger than this are mapped in several windows
+	private static final long MAX_WINDOW = 1L << 30;
+
+	// Number of chunks given to each thread when reading in parallel
+	private static final int CHUNKS_PER_THREAD = 4;
+	// Largest part of the file a chunk covers, so that the chunks waiting for their turn stay small
+	private static final long MAX_CHUNK = 64L << 20;
+	// Number of chunks read ahead of the one being handed over, per thread
+	private static final int CHUNKS_IN_FLIGHT = 2;
+
+	/**
+	 * Receives the records of a capture.
+	 */
+	public interface RecordHandler {
+		/**
+		 * @param record the current record, only valid during this call
+		 * @return true to keep reading, false to stop
+		 * @throws IOException if the record could not be handled
+		 */
+		boolean nextRecord(PcapRecord record) throws IOException;
+	}
+
+	/**
+	 * Receives the handlers of the chunks of a capture read in parallel.
+	 */
+	public interface ChunkHandler<H> {
+		/**
+		 * @param chunk the handler of the next chunk, in capture order, once it read the whole chunk
+		 * @return true to keep reading, false to stop
+		 * @throws IOException if the chunk could not be handled
+		 */
+		boolean nextChunk(H chunk) throws IOException;
+	}
+
+	/**
+	 * Reads a part of a capture.
+	 */
+	private interface Chunk {
+		void read(RecordHandler handler) throws IOException;
+	}
+
+	private PcapReader() {}
+
+	/**
+	 * Reads all the records of a pcap or pcapng file.
+	 *
+	 * @param pcapFile the pcap file to read
+	 * @param handler the record handler
+	 * @throws IOException if the file cannot be read or is not a pcap file
+	 */
+	public static void read(File pcapFile, RecordHandler handler) throws IOException {
+		try (FileChannel channel = FileChannel.open(pcapFile.toPath(), StandardOpenOption.READ)) {
+			if(isPcapng(channel)) {
+				PcapngReader.readBlocks(channel, new PcapngReader.Section(), 0, channel.size(), handler);
+				return;
+			}
+			Header header = readHeader(channel, pcapFile);
+			readRecords(channel, header, GLOBAL_HEADER_LENGTH, channel.size(), handler);
+		}
+	}
+
+	/**
+	 * Reads all the records of a pcap or pcapng stream.
+	 * The stream is not closed.
+	 *
+	 * @param stream the pcap stream to read
+	 * @param handler the record handler
+	 * @throws IOException if the stream cannot be read or is not a pcap stream
+	 */
+	public static void read(InputStream stream, RecordHandler handler) throws IOException {
+		InputStream in = new BufferedInputStream(stream, 1 << 16);
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		if(!readFully(in, buffer.array(), 0, 4))
+			throw new IOException("Not a pcap stream");
+		if(buffer.getInt(0) == PcapngReader.SECTION_HEADER) {
+			PcapngReader.read(in, buffer, 4, handler);
+			return;
+		}
+		if(!readFully(in, buffer.array(), 4, GLOBAL_HEADER_LENGTH - 4))
+			throw new IOException("Not a pcap stream");
+		Header header = readHeader(buffer, "stream");
+		int snapLength = buffer.getInt(16);
+		int maxRecord = snapLength > 0 ? Math.min(snapLength, MAX_RECORD) : MAX_RECORD;
+
+		PcapRecord record = new PcapRecord();
+		// A truncated last record ends the capture
+		while(readFully(in, buffer.array(), 0, RECORD_HEADER_LENGTH)) {
+			long seconds = buffer.getInt(0) & 0xFFFFFFFFL;
+			long fraction = buffer.getInt(4) & 0xFFFFFFFFL;
+			int capturedLength = buffer.getInt(8);
+			int originalLength = buffer.getInt(12);
+			if(capturedLength < 0)
+				throw new IOException("Invalid record length: " + capturedLength);
+			if(capturedLength > maxRecord)
+				throw new IOException("Record of " + capturedLength + " bytes longer than the snapshot length " + maxRecord);
+			if(capturedLength > buffer.capacity()) {
+				buffer = ByteBuffer.allocate(Math.max(capturedLength, buffer.capacity() * 2));
+				buffer.order(header.order);
+			}
+			if(!readFully(in, buffer.array(), 0, capturedLength))
+				return;
+
+			long timestamp = seconds * 1000000 + (header.nanos ? fraction / 1000 : fraction);
+			record.set(buffer, 0, capturedLength, originalLength, header.linkType, timestamp);
+			if(!handler.nextRecord(record)) return;
+		}
+	}
+
+	/**
+	 * @return false if the stream ended before length bytes could be read
+	 */
+	static boolean readFully(InputStream in, byte[] dst, int offset, int length) throws IOException {
+		int read = 0;
+		while(read < length) {
+			int n = in.read(dst, offset + read, length - read);
+			if(n < 0) return false;
+			read += n;
+		}
+		return true;
+	}
+
+	/**
+	 * Reads a pcap or pcapng file with several threads.
+	 * The file is split on record boundaries into chunks that are decoded
+	 * concurrently, each one by its own handler. The handlers are given back
+	 * in capture order as soon as their chunk and the previous ones are read,
+	 * and only a few chunks per thread are read ahead, so the memory held by
+	 * the handlers stays bounded whatever the size of the file.
+	 *
+	 * @param pcapFile the pcap file to read
+	 * @param parallelism the number of threads to use
+	 * @param handlers creates the handler of each chunk
+	 * @param chunks receives the handlers of the chunks, in capture order
+	 * @throws IOException if the file cannot be read or is not a pcap file
+	 */
+	public static <H extends RecordHandler> void readChunks(File pcapFile, int parallelism, Supplier<H> handlers,
+			ChunkHandler<? super H> chunks) throws IOException {
+		try (FileChannel channel = FileChannel.open(pcapFile.toPath(), StandardOpenOption.READ)) {
+			int count = (int) Math.min(Integer.MAX_VALUE, Math.max(parallelism * CHUNKS_PER_THREAD, channel.size() / MAX_CHUNK));
+			List<Chunk> parts = split(channel, pcapFile, count);
+
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				Deque<H> read = new ArrayDeque<>();
+				Deque<Future<?>> tasks = new ArrayDeque<>();
+				int next = 0;
+				while(next < parts.size() || !tasks.isEmpty()) {
+					while(next < parts.size() && tasks.size() < parallelism * CHUNKS_IN_FLIGHT) {
+						final Chunk part = parts.get(next++);
+						final H handler = handlers.get();
+						read.add(handler);
+						tasks.add(pool.submit(() -> {
+							try {
+								part.read(handler);
+							} catch (IOException e) {
+								throw new UncheckedIOException(e);
+							}
+						}));
+					}
+					tasks.remove().get();
+					// The chunks left unread are dropped once the handler has enough
+					if(!chunks.nextChunk(read.remove())) return;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while reading " + pcapFile, e);
+			} catch (ExecutionException e) {
+				if(e.getCause() instanceof UncheckedIOException)
+					throw ((UncheckedIOException) e.getCause()).getCause();
+				throw new IOException("Could not read " + pcapFile, e.getCause());
+			} finally {
+				pool.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * Splits a capture into chunks of about the same size.
+	 */
+	private static List<Chunk> split(FileChannel channel, File pcapFile, int count) throws IOException {
+		List<Chunk> chunks = new ArrayList<>();
+		if(isPcapng(channel)) {
+			List<PcapngReader.Section> sections = new ArrayList<>();
+			long[] bounds = PcapngReader.split(channel, count, sections);
+			for(int i = 0; i + 1 < bounds.length; i++) {
+				final PcapngReader.Section section = sections.get(i);
+				final long start = bounds[i], end = bounds[i + 1];
+				chunks.add(handler -> PcapngReader.readBlocks(channel, section, start, end, handler));
+			}
+			return chunks;
+		}
+
+		Header header = readHeader(channel, pcapFile);
+		long[] bounds = splitRecords(channel, header, count);
+		for(int i = 0; i + 1 < bounds.length; i++) {
+			final long start = bounds[i], end = bounds[i + 1];
+			chunks.add(handler -> readRecords(channel, header, start, end, handler));
+		}
+		return chunks;
+	}
+
+	/**
+	 * Walks the record headers to find chunk boundaries.
+	 *
+	 * @return the start of every chunk followed by the end of the last one
+	 */
+	private static long[] splitRecords(FileChannel channel, Header header, int chunks) throws IOException {
+		long size = channel.size();
+		long chunkSize = Math.max((size - GLOBAL_HEADER_LENGTH) / chunks, 1);
+		List<Long> bounds = new ArrayList<>();
+		bounds.add((long) GLOBAL_HEADER_LENGTH);
+
+		MappedByteBuffer window = null;
+		long windowStart = 0;
+		long position = GLOBAL_HEADER_LENGTH, next = GLOBAL_HEADER_LENGTH + chunkSize;
+		while(position + RECORD_HEADER_LENGTH <= size) {
+			if(window == null || position + RECORD_HEADER_LENGTH - windowStart > window.limit()) {
+				window = map(channel, position, size, header.order);
+				windowStart = position;
+			}
+			int capturedLength = window.getInt((int) (position - windowStart) + 8);
+			if(capturedLength < 0 || position + RECORD_HEADER_LENGTH + capturedLength > size)
+				break;
+			position += RECORD_HEADER_LENGTH + capturedLength;
+			if(position >= next && position < size) {
+				bounds.add(position);
+				next = position + chunkSize;
+			}
+		}
+		bounds.add(position);
+
+		long[] result = new long[bounds.size()];
+		for(int i = 0; i < result.length; i++)
+			result[i] = bounds.get(i);
+		return result;
+	}
+
+	/**
+	 * Decodes the records found between two file positions.
+	 */
+	private static void readRecords(FileChannel channel, Header header, long start, long end, RecordHandler handler) throws IOException {
+		PcapRecord record = new PcapRecord();
+		MappedByteBuffer window = null;
+		long windowStart = 0;
+		long position = start;
+		while(position + RECORD_HEADER_LENGTH <= end) {
+			checkInterrupted();
+			if(window == null || position + RECORD_HEADER_LENGTH - windowStart > window.limit()) {
+				window = map(channel, position, end, header.order);
+				windowStart = position;
+			}
+			int offset = (int) (position - windowStart);
+			long seconds = window.getInt(offset) & 0xFFFFFFFFL;
+			long fraction = window.getInt(offset + 4) & 0xFFFFFFFFL;
+			int capturedLength = window.getInt(offset + 8);
+			int originalLength = window.getInt(offset + 12);
+			if(capturedLength < 0 || position + RECORD_HEADER_LENGTH + capturedLength > end)
+				break; // Truncated capture
+
+			if(offset + RECORD_HEADER_LENGTH + capturedLength > window.limit()) {
+				window = map(channel, position, end, header.order);
+				windowStart = position;
+				offset = 0;
+			}
+			long timestamp = seconds * 1000000 + (header.nanos ? fraction / 1000 : fraction);
+			record.set(window, offset + RECORD_HEADER_LENGTH, capturedLength, originalLength, header.linkType, timestamp);
+			if(!handler.nextRecord(record)) return;
+
+			position += RECORD_HEADER_LENGTH + capturedLength;
+		}
+	}
+
+	/**
+	 * Stops a read of a mapped file when its thread is interrupted, as mapped reads never block to notice it.
+	 */
+	static void checkInterrupted() throws InterruptedIOException {
+		if(Thread.interrupted())
+			throw new InterruptedIOException("Interrupted while reading a capture");
+	}
+
+	static MappedByteBuffer map(FileChannel channel, long position, long end, ByteOrder order) throws IOException {
+		MappedByteBuffer window = channel.map(MapMode.READ_ONLY, position, Math.min(end - position, MAX_WINDOW));
+		window.order(order);
+		return window;
+	}
+
+	private static boolean isPcapng(FileChannel channel) throws IOException {
+		return channel.size() >= 4 && channel.map(MapMode.READ_ONLY, 0, 4).getInt(0) == PcapngReader.SECTION_HEADER;
+	}
+
+	private static Header readHeader(FileChannel channel, File pcapFile) throws IOException {
+		if(channel.size() < GLOBAL_HEADER_LENGTH)
+			throw new IOException("Not a pcap file: " + pcapFile);
+		return readHeader(channel.map(MapMode.READ_ONLY, 0, GLOBAL_HEADER_LENGTH), pcapFile.toString());
+	}
+
+	/**
+	 * Reads the global header and sets the byte order of the buffer to the one of the capture.
+	 */
+	private static Header readHeader(ByteBuffer buffer, String source) throws IOException {
+		int magic = buffer.getInt(0);
+		if(Integer.reverseBytes(magic) == MAGIC_MICROS || Integer.reverseBytes(magic) == MAGIC_NANOS)
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+		else if(magic != MAGIC_MICROS && magic != MAGIC_NANOS)
+			throw new IOException("Not a pcap file: " + source);
+		return new Header(buffer.order(), buffer.getInt(0) == MAGIC_NANOS, buffer.getInt(20));
+	}
+
+	/**
+	 * What is needed from the pcap global header to decode records.
+	 */
+	private static class Header {
+		final ByteOrder order;
+		final boolean nanos;
+		final int linkType;
+
+		Header(ByteOrder order, boolean nanos, int linkType) {
+			this.order = order;
+			this.nanos = nanos;
+			this.linkType = linkType;
+		}
+	}
+}
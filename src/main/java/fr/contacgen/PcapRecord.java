@@ -0,0 +1,360 @@
+package fr.contacgen;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A view over one captured frame.
+ * The same instance is reused by {@link PcapReader} for every record of a capture,
+ * all getters read directly from the underlying buffer, so a record must not be
+ * kept after the handler returns.
+ */
+public class PcapRecord {
+	public static final int LINKTYPE_NULL = 0;
+	public static final int LINKTYPE_ETHERNET = 1;
+	public static final int LINKTYPE_RAW = 101;
+	public static final int LINKTYPE_LINUX_SLL = 113;
+	public static final int LINKTYPE_IPV4 = 228;
+	public static final int LINKTYPE_IPV6 = 229;
+
+	private static final int ETHERTYPE_IPV4 = 0x0800;
+	private static final int ETHERTYPE_IPV6 = 0x86DD;
+	private static final int ETHERTYPE_VLAN = 0x8100;
+	private static final int ETHERTYPE_QINQ = 0x88A8;
+
+	private ByteBuffer buffer;
+	private int frameOffset, capturedLength, originalLength;
+	private long timestamp;
+
+	private int version, ipOffset, headerLength, totalLength, protocol, fragmentOffset;
+	private int payloadOffset, payloadEnd;
+
+	/**
+	 * Points this view to a new frame and decodes its link and network layer offsets.
+	 *
+	 * @param buffer the buffer holding the frame
+	 * @param frameOffset the absolute index of the first byte of the frame
+	 * @param capturedLength the number of bytes of the frame available in the buffer
+	 * @param originalLength the length of the frame on the wire
+	 * @param linkType the pcap link type of the frame
+	 * @param timestamp the arrival time in microseconds since the epoch
+	 */
+	void set(ByteBuffer buffer, int frameOffset, int capturedLength, int originalLength, int linkType, long timestamp) {
+		this.buffer = buffer;
+		this.frameOffset = frameOffset;
+		this.capturedLength = capturedLength;
+		this.originalLength = originalLength;
+		this.timestamp = timestamp;
+		this.version = 0;
+		decodeLink(linkType);
+	}
+
+	private void decodeLink(int linkType) {
+		int end = frameOffset + capturedLength;
+		switch(linkType) {
+		case LINKTYPE_ETHERNET: {
+			int offset = frameOffset + 12;
+			if(offset + 2 > end) return;
+			int etherType = getUnsignedShort(offset);
+			while((etherType == ETHERTYPE_VLAN || etherType == ETHERTYPE_QINQ) && offset + 6 <= end) {
+				offset += 4;
+				etherType = getUnsignedShort(offset);
+			}
+			decodeNetwork(etherType, offset + 2, end);
+			break;
+		}
+		case LINKTYPE_LINUX_SLL:
+			if(frameOffset + 16 > end) return;
+			decodeNetwork(getUnsignedShort(frameOffset + 14), frameOffset + 16, end);
+			break;
+		case LINKTYPE_NULL:
+			if(frameOffset + 4 > end) return;
+			decodeNetwork(versionEtherType(frameOffset + 4, end), frameOffset + 4, end);
+			break;
+		case LINKTYPE_RAW:
+		case LINKTYPE_IPV4:
+		case LINKTYPE_IPV6:
+			decodeNetwork(versionEtherType(frameOffset, end), frameOffset, end);
+			break;
+		default:
+			break;
+		}
+	}
+
+	private int versionEtherType(int offset, int end) {
+		if(offset >= end) return 0;
+		switch((buffer.get(offset) & 0xF0) >> 4) {
+		case 4:
+			return ETHERTYPE_IPV4;
+		case 6:
+			return ETHERTYPE_IPV6;
+		default:
+			return 0;
+		}
+	}
+
+	private void decodeNetwork(int etherType, int offset, int end) {
+		if(etherType == ETHERTYPE_IPV4 && offset + 20 <= end) {
+			this.ipOffset = offset;
+			this.headerLength = (buffer.get(offset) & 0xF) * 4;
+			this.totalLength = getUnsignedShort(offset + 2);
+			this.protocol = buffer.get(offset + 9) & 0xFF;
+			this.fragmentOffset = getUnsignedShort(offset + 6) & 0x1FFF;
+			this.payloadOffset = Math.min(offset + Math.max(headerLength, 20), end);
+			this.payloadEnd = Math.max(payloadOffset, Math.min(offset + totalLength, end));
+			this.version = 4;
+		} else if(etherType == ETHERTYPE_IPV6 && offset + 40 <= end) {
+			this.ipOffset = offset;
+			this.totalLength = 40 + getUnsignedShort(offset + 4);
+			this.fragmentOffset = -1;
+			int next = buffer.get(offset + 6) & 0xFF;
+			int header = offset + 40;
+			// Walk the extension headers up to the transport layer
+			extensions: while(header + 8 <= end) {
+				int length;
+				switch(next) {
+				case 0:
+				case 43:
+				case 60:
+				case 135:
+					length = 8 + (buffer.get(header + 1) & 0xFF) * 8;
+					break;
+				case 44:
+					this.fragmentOffset = getUnsignedShort(header + 2) & 0xFFF8;
+					length = 8;
+					break;
+				case 51:
+					length = 4 * ((buffer.get(header + 1) & 0xFF) + 2);
+					break;
+				default:
+					break extensions;
+				}
+				next = buffer.get(header) & 0xFF;
+				header += length;
+			}
+			this.protocol = next;
+			this.headerLength = header - offset;
+			this.payloadOffset = Math.min(header, end);
+			this.payloadEnd = Math.max(payloadOffset, Math.min(offset + totalLength, end));
+			this.version = 6;
+		}
+	}
+
+	/**
+	 * @return true if the frame carries an IPv4 or IPv6 packet
+	 */
+	public boolean isIP() {
+		return version != 0;
+	}
+
+	/**
+	 * @return the arrival time in microseconds since the epoch
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public int getCapturedLength() {
+		return capturedLength;
+	}
+
+	public int getOriginalLength() {
+		return originalLength;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the IP header length in bytes, including IPv6 extension headers
+	 */
+	public int getHeaderLength() {
+		return headerLength;
+	}
+
+	/**
+	 * @return the IP total length, for IPv6 the fixed header plus the payload length
+	 */
+	public int getTotalLength() {
+		return totalLength;
+	}
+
+	/**
+	 * @return the IPv4 identification, or the flow label for IPv6
+	 */
+	public int getIdentification() {
+		if(version == 4)
+			return getUnsignedShort(ipOffset + 4);
+		return (buffer.get(ipOffset + 1) & 0xF) << 16 | getUnsignedShort(ipOffset + 2);
+	}
+
+	/**
+	 * @return the IPv4 fragment offset in 8 bytes units, the IPv6 one in bytes
+	 * or -1 if there is no IPv6 fragment header
+	 */
+	public int getFragmentOffset() {
+		return fragmentOffset;
+	}
+
+	/**
+	 * @return the IPv4 time to live or the IPv6 hop limit
+	 */
+	public int getTTL() {
+		return buffer.get(ipOffset + (version == 4 ? 8 : 7)) & 0xFF;
+	}
+
+	/**
+	 * @return the IPv4 header checksum, or -1 for IPv6
+	 */
+	public int getChecksum() {
+		return version == 4 ? getUnsignedShort(ipOffset + 10) : -1;
+	}
+
+	/**
+	 * @return the IPv4 protocol or the IPv6 next header after the extension headers
+	 */
+	public int getProtocol() {
+		return protocol;
+	}
+
+	public String getSourceIP() {
+		return formatAddress(version == 4 ? ipOffset + 12 : ipOffset + 8);
+	}
+
+	public String getDestinationIP() {
+		return formatAddress(version == 4 ? ipOffset + 16 : ipOffset + 24);
+	}
+
+	/**
+	 * @return the raw IPv4 source address, only meaningful for IPv4 packets
+	 */
+	public int getSourceIPv4() {
+		return getInt(ipOffset + 12);
+	}
+
+	/**
+	 * @return the raw IPv4 destination address, only meaningful for IPv4 packets
+	 */
+	public int getDestinationIPv4() {
+		return getInt(ipOffset + 16);
+	}
+
+	/**
+	 * @return true if the packet is not a fragment, or the first one: the transport header is in its payload
+	 */
+	public boolean isFirstFragment() {
+		return fragmentOffset <= 0;
+	}
+
+	/**
+	 * @return the TCP or UDP source port, 0 for other protocols or if it was not captured
+	 */
+	public int getSourcePort() {
+		return hasPorts() ? getUnsignedShort(payloadOffset) : 0;
+	}
+
+	/**
+	 * @return the TCP or UDP destination port, 0 for other protocols or if it was not captured
+	 */
+	public int getDestinationPort() {
+		return hasPorts() ? getUnsignedShort(payloadOffset + 2) : 0;
+	}
+
+	/**
+	 * @return the TCP flags, 0 for other protocols or if they were not captured
+	 */
+	public int getTCPFlags() {
+		return protocol == 6 && isFirstFragment() && getPayloadLength() >= 14 ? buffer.get(payloadOffset + 13) & 0xFF : 0;
+	}
+
+	/**
+	 * @return the TCP window size, 0 for other protocols or if it was not captured
+	 */
+	public int getTCPWindow() {
+		return protocol == 6 && isFirstFragment() && getPayloadLength() >= 16 ? getUnsignedShort(payloadOffset + 14) : 0;
+	}
+
+	/**
+	 * @return the length in the UDP header, 0 for other protocols or if it was not captured
+	 */
+	public int getUDPLength() {
+		return protocol == 17 && isFirstFragment() && getPayloadLength() >= 6 ? getUnsignedShort(payloadOffset + 4) : 0;
+	}
+
+	/**
+	 * @return the ICMP or ICMPv6 type, 0 for other protocols or if it was not captured
+	 */
+	public int getICMPType() {
+		return isICMP() ? buffer.get(payloadOffset) & 0xFF : 0;
+	}
+
+	/**
+	 * @return the ICMP or ICMPv6 code, 0 for other protocols or if it was not captured
+	 */
+	public int getICMPCode() {
+		return isICMP() ? buffer.get(payloadOffset + 1) & 0xFF : 0;
+	}
+
+	private boolean isICMP() {
+		return (version == 4 ? protocol == 1 : protocol == 58) && isFirstFragment() && getPayloadLength() >= 2;
+	}
+
+	private boolean hasPorts() {
+		return (protocol == 6 || protocol == 17) && isFirstFragment() && getPayloadLength() >= 4;
+	}
+
+	/**
+	 * @return the number of captured bytes after the IP headers
+	 */
+	public int getPayloadLength() {
+		return payloadEnd - payloadOffset;
+	}
+
+	/**
+	 * @param index the index in the IP payload
+	 * @return the byte at the given index
+	 */
+	public byte getPayloadByte(int index) {
+		return buffer.get(payloadOffset + index);
+	}
+
+	/**
+	 * Copies the IP payload.
+	 *
+	 * @param dst the destination array
+	 * @param offset the index of the first byte to write in dst
+	 * @param length the maximum number of bytes to copy
+	 * @return the number of bytes copied
+	 */
+	public int getPayload(byte[] dst, int offset, int length) {
+		length = Math.min(length, getPayloadLength());
+		for(int i = 0; i < length; i++)
+			dst[offset + i] = buffer.get(payloadOffset + i);
+		return length;
+	}
+
+	private int getUnsignedShort(int index) {
+		return (buffer.get(index) & 0xFF) << 8 | buffer.get(index + 1) & 0xFF;
+	}
+
+	private int getInt(int index) {
+		return getUnsignedShort(index) << 16 | getUnsignedShort(index + 2);
+	}
+
+	private String formatAddress(int index) {
+		StringBuilder sb = new StringBuilder(version == 4 ? 15 : 39);
+		if(version == 4) {
+			for(int i = 0; i < 4; i++) {
+				if(i > 0) sb.append('.');
+				sb.append(buffer.get(index + i) & 0xFF);
+			}
+		} else {
+			// Same format as Inet6Address.getHostAddress()
+			for(int i = 0; i < 16; i += 2) {
+				if(i > 0) sb.append(':');
+				sb.append(Integer.toHexString(getUnsignedShort(index + i)));
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,298 @@
+package fr.contacgen;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.contacgen.PcapReader.RecordHandler;
+
+/**
+ * Decodes pcapng captures for {@link PcapReader}.
+ * Section headers give the byte order, interface descriptions the link type and
+ * timestamp resolution, and enhanced, simple or obsolete packet blocks the frames.
+ * Any other block is skipped.
+ */
+class PcapngReader {
+	static final int SECTION_HEADER = 0x0A0D0D0A;
+	private static final int INTERFACE_DESCRIPTION = 1;
+	private static final int PACKET = 2;
+	private static final int SIMPLE_PACKET = 3;
+	private static final int ENHANCED_PACKET = 6;
+
+	private static final int BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+	private static final int OPTION_END = 0;
+	private static final int OPTION_TSRESOL = 9;
+	private static final int OPTION_TSOFFSET = 14;
+
+	// Block type, block length and the first body word, enough to find the byte order
+	private static final int BLOCK_PREFIX_LENGTH = 12;
+	// Largest block read from a stream, a record of the largest snapshot length with room for its headers and options
+	private static final int MAX_BLOCK = PcapReader.MAX_RECORD + (1 << 16);
+
+	private PcapngReader() {}
+
+	/**
+	 * Reads the blocks found between two file positions.
+	 *
+	 * @param section the state of the section the first block belongs to
+	 */
+	static void readBlocks(FileChannel channel, Section section, long start, long end, RecordHandler handler) throws IOException {
+		PcapRecord record = new PcapRecord();
+		MappedByteBuffer window = null;
+		long windowStart = 0;
+		long position = start;
+		while(position + BLOCK_PREFIX_LENGTH <= end) {
+			PcapReader.checkInterrupted();
+			if(window == null || position + BLOCK_PREFIX_LENGTH - windowStart > window.limit()) {
+				window = PcapReader.map(channel, position, end, section.order);
+				windowStart = position;
+			}
+			int offset = (int) (position - windowStart);
+			if(window.getInt(offset) == SECTION_HEADER)
+				window.order(section.start(window, offset));
+			int length = window.getInt(offset + 4);
+			if(length < BLOCK_PREFIX_LENGTH || (length & 3) != 0 || position + length > end)
+				break; // Truncated capture
+
+			if(offset + length > window.limit()) {
+				window = PcapReader.map(channel, position, end, section.order);
+				windowStart = position;
+				offset = 0;
+			}
+			if(section.decode(window, offset, length, record) && !handler.nextRecord(record))
+				return;
+
+			position += length;
+		}
+	}
+
+	/**
+	 * Reads the blocks of a pcapng stream.
+	 *
+	 * @param in the stream, positioned after the first bytes
+	 * @param buffer a buffer holding the first bytes of the stream
+	 * @param read the number of bytes already read into the buffer
+	 */
+	static void read(InputStream in, ByteBuffer buffer, int read, RecordHandler handler) throws IOException {
+		Section section = new Section();
+		PcapRecord record = new PcapRecord();
+		// A truncated last block ends the capture
+		while(PcapReader.readFully(in, buffer.array(), read, BLOCK_PREFIX_LENGTH - read)) {
+			read = 0;
+			if(buffer.getInt(0) == SECTION_HEADER)
+				buffer.order(section.start(buffer, 0));
+			int length = buffer.getInt(4);
+			if(length < BLOCK_PREFIX_LENGTH || (length & 3) != 0)
+				throw new IOException("Invalid block length: " + length);
+			if(length > MAX_BLOCK)
+				throw new IOException("Block of " + length + " bytes longer than the largest one read from a stream " + MAX_BLOCK);
+			if(length > buffer.capacity()) {
+				ByteBuffer larger = ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2));
+				larger.order(section.order);
+				System.arraycopy(buffer.array(), 0, larger.array(), 0, BLOCK_PREFIX_LENGTH);
+				buffer = larger;
+			}
+			if(!PcapReader.readFully(in, buffer.array(), BLOCK_PREFIX_LENGTH, length - BLOCK_PREFIX_LENGTH))
+				return;
+
+			if(section.decode(buffer, 0, length, record) && !handler.nextRecord(record))
+				return;
+		}
+	}
+
+	/**
+	 * Walks the blocks to find chunk boundaries.
+	 * Each chunk starts on a block with a copy of the section state at that point.
+	 *
+	 * @param sections filled with the section state at the start of every chunk
+	 * @return the start of every chunk followed by the end of the last one
+	 */
+	static long[] split(FileChannel channel, int chunks, List<Section> sections) throws IOException {
+		long size = channel.size();
+		long chunkSize = Math.max(size / chunks, 1);
+		List<Long> bounds = new ArrayList<>();
+		Section section = new Section();
+		bounds.add(0L);
+		sections.add(section.copy());
+
+		MappedByteBuffer window = null;
+		long windowStart = 0;
+		long position = 0, next = chunkSize;
+		while(position + BLOCK_PREFIX_LENGTH <= size) {
+			if(window == null || position + BLOCK_PREFIX_LENGTH - windowStart > window.limit()) {
+				window = PcapReader.map(channel, position, size, section.order);
+				windowStart = position;
+			}
+			int offset = (int) (position - windowStart);
+			int type = window.getInt(offset);
+			if(type == SECTION_HEADER)
+				window.order(section.start(window, offset));
+			int length = window.getInt(offset + 4);
+			if(length < BLOCK_PREFIX_LENGTH || (length & 3) != 0 || position + length > size)
+				break;
+			if(type == INTERFACE_DESCRIPTION) {
+				if(offset + length > window.limit()) {
+					window = PcapReader.map(channel, position, size, section.order);
+					windowStart = position;
+					offset = 0;
+				}
+				section.decode(window, offset, length, null);
+			}
+			position += length;
+			if(position >= next && position < size) {
+				bounds.add(position);
+				sections.add(section.copy());
+				next = position + chunkSize;
+			}
+		}
+		bounds.add(position);
+
+		long[] result = new long[bounds.size()];
+		for(int i = 0; i < result.length; i++)
+			result[i] = bounds.get(i);
+		return result;
+	}
+
+	/**
+	 * The byte order and interfaces of the current section.
+	 */
+	static class Section {
+		ByteOrder order = ByteOrder.BIG_ENDIAN;
+		private List<Interface> interfaces = new ArrayList<>();
+
+		/**
+		 * Starts a new section from its header block.
+		 *
+		 * @return the byte order of the section
+		 * @throws IOException if the byte order magic is invalid
+		 */
+		ByteOrder start(ByteBuffer buffer, int offset) throws IOException {
+			int magic = (buffer.get(offset + 8) & 0xFF) << 24 | (buffer.get(offset + 9) & 0xFF) << 16
+					| (buffer.get(offset + 10) & 0xFF) << 8 | buffer.get(offset + 11) & 0xFF;
+			if(magic == BYTE_ORDER_MAGIC)
+				order = ByteOrder.BIG_ENDIAN;
+			else if(Integer.reverseBytes(magic) == BYTE_ORDER_MAGIC)
+				order = ByteOrder.LITTLE_ENDIAN;
+			else
+				throw new IOException("Invalid pcapng byte order magic: " + Integer.toHexString(magic));
+			interfaces = new ArrayList<>();
+			return order;
+		}
+
+		Section copy() {
+			Section copy = new Section();
+			copy.order = order;
+			copy.interfaces = new ArrayList<>(interfaces);
+			return copy;
+		}
+
+		/**
+		 * Decodes a block, the buffer order must be the one of the section.
+		 *
+		 * @param record the record to point to the frame, may be null when only interfaces matter
+		 * @return true if the block holds a frame, the record then points to it
+		 * @throws IOException if the block refers to an unknown interface
+		 */
+		boolean decode(ByteBuffer buffer, int offset, int length, PcapRecord record) throws IOException {
+			int body = offset + 8, end = offset + length - 4;
+			switch(buffer.getInt(offset)) {
+			case INTERFACE_DESCRIPTION:
+				interfaces.add(describe(buffer, body, end));
+				return false;
+			case ENHANCED_PACKET: {
+				if(record == null || body + 20 > end) return false;
+				Interface itf = getInterface(buffer.getInt(body));
+				long time = (buffer.getInt(body + 4) & 0xFFFFFFFFL) << 32 | buffer.getInt(body + 8) & 0xFFFFFFFFL;
+				int capturedLength = Math.min(buffer.getInt(body + 12), end - body - 20);
+				record.set(buffer, body + 20, capturedLength, buffer.getInt(body + 16), itf.linkType, itf.micros(time));
+				return true;
+			}
+			case PACKET: {
+				if(record == null || body + 20 > end) return false;
+				Interface itf = getInterface(buffer.getShort(body) & 0xFFFF);
+				long time = (buffer.getInt(body + 4) & 0xFFFFFFFFL) << 32 | buffer.getInt(body + 8) & 0xFFFFFFFFL;
+				int capturedLength = Math.min(buffer.getInt(body + 12), end - body - 20);
+				record.set(buffer, body + 20, capturedLength, buffer.getInt(body + 16), itf.linkType, itf.micros(time));
+				return true;
+			}
+			case SIMPLE_PACKET: {
+				if(record == null || body + 4 > end) return false;
+				// Simple packets have no timestamp and always come from the first interface
+				int originalLength = buffer.getInt(body);
+				int capturedLength = Math.min(originalLength, end - body - 4);
+				record.set(buffer, body + 4, capturedLength, originalLength, getInterface(0).linkType, 0);
+				return true;
+			}
+			default:
+				return false;
+			}
+		}
+
+		private Interface getInterface(int id) throws IOException {
+			if(id < 0 || id >= interfaces.size())
+				throw new IOException("Packet from an undescribed interface: " + id);
+			return interfaces.get(id);
+		}
+
+		private static Interface describe(ByteBuffer buffer, int body, int end) {
+			int linkType = buffer.getShort(body) & 0xFFFF;
+			int resolution = 6;
+			long offset = 0;
+			int option = body + 8;
+			while(option + 4 <= end) {
+				int code = buffer.getShort(option) & 0xFFFF;
+				int length = buffer.getShort(option + 2) & 0xFFFF;
+				if(code == OPTION_END || option + 4 + length > end) break;
+				if(code == OPTION_TSRESOL && length >= 1)
+					resolution = buffer.get(option + 4) & 0xFF;
+				else if(code == OPTION_TSOFFSET && length >= 8)
+					offset = buffer.getLong(option + 4);
+				option += 4 + (length + 3 & ~3);
+			}
+			return new Interface(linkType, resolution, offset);
+		}
+	}
+
+	/**
+	 * An interface description, its frames timestamps are in units of 10^-resolution
+	 * seconds, or 2^-resolution when the high bit of the resolution is set.
+	 */
+	private static class Interface {
+		private static final long[] POWERS_OF_TEN = { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L,
+				100000000L, 1000000000L, 10000000000L, 100000000000L, 1000000000000L };
+
+		final int linkType;
+		final int resolution;
+		final long offsetMicros;
+
+		Interface(int linkType, int resolution, long offsetSeconds) {
+			this.linkType = linkType;
+			this.resolution = resolution;
+			this.offsetMicros = offsetSeconds * 1000000;
+		}
+
+		/**
+		 * @return the timestamp in microseconds since the epoch
+		 */
+		long micros(long time) {
+			if((resolution & 0x80) != 0) {
+				int shift = resolution & 0x7F;
+				if(shift >= 64) return offsetMicros;
+				long seconds = time >>> shift;
+				long fraction = time & (1L << shift) - 1;
+				long micros = shift <= 43 ? fraction * 1000000 >>> shift : (long) (fraction / Math.pow(2, shift) * 1000000);
+				return offsetMicros + seconds * 1000000 + micros;
+			}
+			if(resolution <= 6)
+				return offsetMicros + time * POWERS_OF_TEN[6 - resolution];
+			if(resolution - 6 < POWERS_OF_TEN.length)
+				return offsetMicros + Long.divideUnsigned(time, POWERS_OF_TEN[resolution - 6]);
+			return offsetMicros;
+		}
+	}
+}
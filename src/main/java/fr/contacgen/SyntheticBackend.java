@@ -0,0 +1,295 @@
+package fr.contacgen;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Synthesizes the capture in process instead of running docker.
+ * The attack sends the same payloads as {@link UDPFlood} for the same seed, the
+ * background is a mix of HTTP, DNS and ICMP traffic. Frames are written into a
+ * reused buffer and handed to the handler as if they were read from a capture,
+ * so a capture only depends on the seed and is produced far faster than real time.
+ */
+public class SyntheticBackend implements CaptureBackend {
+	// Every synthetic capture starts at the same time
+	private static final Instant CAPTURE_START = Instant.parse("2024-01-01T00:00:00Z");
+
+	private static final int HOST = 0xAC110001; // 172.17.0.1, the attacker
+	private static final int CONTAINER = 0xAC110002; // 172.17.0.2
+	private static final int RESOLVER = 0x08080808; // 8.8.8.8
+
+	private static final int ETHERNET_LENGTH = 14;
+	private static final int IP_LENGTH = 20;
+	private static final int TCP_LENGTH = 20;
+	private static final int UDP_LENGTH = 8;
+	private static final int ICMP_LENGTH = 8;
+	private static final int MAX_SEGMENT = 1400;
+
+	private final int duration;
+	private final int backgroundRate;
+	private final int attackRate;
+	private int attackAmount = 50000;
+	private int senders = 1;
+	private int minSize = UDPDos.MIN_SIZE;
+	private int maxSize = UDPDos.MAX_SIZE;
+	private Supplier<Pacer> pacers = null;
+	private long attackStart = 1000000;
+	private long attackDuration = 0;
+
+	/**
+	 * @param duration the capture duration in seconds
+	 */
+	public SyntheticBackend(int duration) {
+		this(duration, 200, 5000);
+	}
+
+	/**
+	 * @param duration the capture duration in seconds
+	 * @param backgroundRate the average number of background packets per second
+	 * @param attackRate the number of attack packets per second
+	 */
+	public SyntheticBackend(int duration, int backgroundRate, int attackRate) {
+		if(backgroundRate <= 0 || attackRate <= 0)
+			throw new IllegalArgumentException("Packet rates must be positive.");
+		this.duration = duration;
+		this.backgroundRate = backgroundRate;
+		this.attackRate = attackRate;
+	}
+
+	@Override
+	public void capture(ConTacGenPacketHandler handler, long seed) throws IOException {
+		System.out.println("Synthesize " + duration + " seconds of traffic");
+		// Same timer origin as a docker capture
+		handler.startAt(CAPTURE_START.minus(Duration.ofSeconds(5)));
+		long start = CAPTURE_START.getEpochSecond() * 1000000;
+		long end = duration * 1000000L;
+
+		// Label the packets by the flows of the flood senders, as the attack records them
+		AttackIndex index = new AttackIndex();
+		long attackEnd = attackDuration == 0 ? Long.MAX_VALUE : start + attackStart + attackDuration;
+		for(int sender = 0; sender < senders && attackAmount > 0; sender++)
+			index.add(AttackIndex.UDP, HOST, 40000 + sender, CONTAINER, 80, start + attackStart, attackEnd);
+		handler.labelWith(index);
+
+		Random attack = new Random(seed);
+		Random traffic = new Random(~seed);
+		ByteBuffer frame = ByteBuffer.allocate(ETHERNET_LENGTH + IP_LENGTH + Math.max(TCP_LENGTH + MAX_SEGMENT, UDP_LENGTH + maxSize));
+		PcapRecord record = new PcapRecord();
+		long stage = System.nanoTime();
+		try {
+			synthesize(handler, attack, traffic, frame, record, start, end);
+		} finally {
+			handler.getMetrics().stage(GenerationMetrics.PARSE, stage);
+		}
+	}
+
+	private void synthesize(ConTacGenPacketHandler handler, Random attack, Random traffic, ByteBuffer frame,
+			PcapRecord record, long start, long end) throws IOException {
+		Pacer pacer = pacers != null ? pacers.get() : null;
+		int attacks = 0, id = 0;
+		// The payload of the next attack packet is drawn ahead, its size may set its time
+		byte[] payload = attackAmount > 0 ? UDPDos.nextPayload(attack, minSize, maxSize) : null;
+		long nextAttack = payload != null ? attackStart + attackTime(pacer, 0, payload) : 0;
+		long nextBackground = interArrival(traffic);
+		while(true) {
+			boolean isAttack = payload != null && nextAttack <= nextBackground
+					&& (attackDuration == 0 || nextAttack < attackStart + attackDuration);
+			long time = isAttack ? nextAttack : nextBackground;
+			if(time >= end) break;
+
+			int length = isAttack ? attackFrame(frame, payload, attacks % senders, id++) : backgroundFrame(frame, traffic, id++);
+			record.set(frame, 0, length, length, PcapRecord.LINKTYPE_ETHERNET, start + time);
+			if(!handler.nextRecord(record)) return;
+
+			if(isAttack) {
+				attacks++;
+				payload = attacks < attackAmount ? UDPDos.nextPayload(attack, minSize, maxSize) : null;
+				if(payload != null)
+					nextAttack = attackStart + attackTime(pacer, attacks, payload);
+			} else {
+				nextBackground += interArrival(traffic);
+			}
+		}
+	}
+
+	/**
+	 * Sets the number of attack packets, like {@link UDPFlood} 50000 by default.
+	 *
+	 * @param attackAmount the number of attack packets
+	 */
+	public void setAttackAmount(int attackAmount) {
+		this.attackAmount = attackAmount;
+	}
+
+	/**
+	 * Sets when the attack is stopped, 0 to send all the attack packets.
+	 *
+	 * @param attackDuration the time since the start of the attack in milliseconds
+	 */
+	public void setAttackDuration(long attackDuration) {
+		this.attackDuration = attackDuration * 1000;
+	}
+
+	/**
+	 * Sets the number of flood senders, each one sending from its own port.
+	 *
+	 * @param senders the number of senders
+	 */
+	public void setSenders(int senders) {
+		if(senders < 1)
+			throw new IllegalArgumentException("At least one sender is needed.");
+		this.senders = senders;
+	}
+
+	/**
+	 * Sets the attack payload sizes, drawn uniformly.
+	 *
+	 * @param minSize the smallest payload size
+	 * @param maxSize the largest payload size, excluded
+	 */
+	public void setPayloadSizes(int minSize, int maxSize) {
+		UDPDos.checkSizes(minSize, maxSize);
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Sets when the attack starts, one second after the capture by default.
+	 *
+	 * @param attackStart the time since the start of the capture in milliseconds
+	 */
+	public void setAttackStart(long attackStart) {
+		this.attackStart = attackStart * 1000;
+	}
+
+	/**
+	 * Sets the pacers timing the attack packets instead of the constant attack rate.
+	 *
+	 * @param pacers gives a new pacer for each capture, or null for the constant rate
+	 */
+	public void setPacer(Supplier<Pacer> pacers) {
+		this.pacers = pacers;
+	}
+
+	/**
+	 * @return the time of an attack packet since the start of the attack in microseconds
+	 */
+	private long attackTime(Pacer pacer, int count, byte[] payload) throws InterruptedIOException {
+		if(pacer == null)
+			return count * 1000000L / attackRate;
+		try {
+			return pacer.schedule(payload.length) / 1000;
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while timing the attack packets");
+		}
+	}
+
+	/**
+	 * @return the time until the next background packet in microseconds
+	 */
+	private long interArrival(Random traffic) {
+		return (long) (-Math.log(1 - traffic.nextDouble()) * 1000000 / backgroundRate) + 1;
+	}
+
+	/**
+	 * A UDP packet from the attacker to port 80, sent from the port of one of the flood senders.
+	 */
+	private static int attackFrame(ByteBuffer frame, byte[] payload, int sender, int id) {
+		int udp = writeHeaders(frame, 17, HOST, CONTAINER, id, UDP_LENGTH + payload.length);
+		writeUdp(frame, udp, 40000 + sender, 80, payload.length);
+		System.arraycopy(payload, 0, frame.array(), udp + UDP_LENGTH, payload.length);
+		return udp + UDP_LENGTH + payload.length;
+	}
+
+	private static int backgroundFrame(ByteBuffer frame, Random traffic, int id) {
+		int kind = traffic.nextInt(10);
+		if(kind < 7) {
+			// HTTP exchange between the host and the web server of the container
+			boolean request = traffic.nextBoolean();
+			int length = traffic.nextInt(4) == 0 ? 0 : traffic.nextInt(MAX_SEGMENT);
+			int clientPort = 49152 + traffic.nextInt(16384);
+			int tcp = writeHeaders(frame, 6, request ? HOST : CONTAINER, request ? CONTAINER : HOST, id, TCP_LENGTH + length);
+			frame.putShort(tcp, (short) (request ? clientPort : 80));
+			frame.putShort(tcp + 2, (short) (request ? 80 : clientPort));
+			frame.putInt(tcp + 4, traffic.nextInt());
+			frame.putInt(tcp + 8, traffic.nextInt());
+			frame.put(tcp + 12, (byte) (TCP_LENGTH / 4 << 4));
+			frame.put(tcp + 13, (byte) (length > 0 ? 0x18 : 0x10)); // PSH ACK or ACK
+			frame.putShort(tcp + 14, (short) 64240);
+			frame.putInt(tcp + 16, 0);
+			fill(frame.array(), tcp + TCP_LENGTH, length, traffic);
+			return tcp + TCP_LENGTH + length;
+		} else if(kind < 9) {
+			// DNS query or answer
+			boolean query = kind == 7;
+			int length = query ? 20 + traffic.nextInt(40) : 60 + traffic.nextInt(200);
+			int port = 32768 + traffic.nextInt(28232);
+			int udp = writeHeaders(frame, 17, query ? CONTAINER : RESOLVER, query ? RESOLVER : CONTAINER, id, UDP_LENGTH + length);
+			writeUdp(frame, udp, query ? port : 53, query ? 53 : port, length);
+			fill(frame.array(), udp + UDP_LENGTH, length, traffic);
+			return udp + UDP_LENGTH + length;
+		}
+		// Ping from the host
+		int length = 56;
+		int icmp = writeHeaders(frame, 1, HOST, CONTAINER, id, ICMP_LENGTH + length);
+		frame.putShort(icmp, (short) 0x0800); // Echo request
+		frame.putShort(icmp + 2, (short) 0);
+		frame.putInt(icmp + 4, traffic.nextInt());
+		fill(frame.array(), icmp + ICMP_LENGTH, length, traffic);
+		return icmp + ICMP_LENGTH + length;
+	}
+
+	/**
+	 * Writes the Ethernet and IPv4 headers.
+	 *
+	 * @return the offset of the transport header
+	 */
+	private static int writeHeaders(ByteBuffer frame, int protocol, int source, int destination, int id, int ipPayloadLength) {
+		// Docker derives the MAC addresses from the IP addresses
+		frame.putShort(0, (short) 0x0242);
+		frame.putInt(2, destination);
+		frame.putShort(6, (short) 0x0242);
+		frame.putInt(8, source);
+		frame.putShort(12, (short) 0x0800);
+
+		int ip = ETHERNET_LENGTH;
+		frame.put(ip, (byte) 0x45);
+		frame.put(ip + 1, (byte) 0);
+		frame.putShort(ip + 2, (short) (IP_LENGTH + ipPayloadLength));
+		frame.putShort(ip + 4, (short) id);
+		frame.putShort(ip + 6, (short) 0x4000); // Don't fragment
+		frame.put(ip + 8, (byte) 64);
+		frame.put(ip + 9, (byte) protocol);
+		frame.putShort(ip + 10, (short) 0);
+		frame.putInt(ip + 12, source);
+		frame.putInt(ip + 16, destination);
+
+		int sum = 0;
+		for(int i = 0; i < IP_LENGTH; i += 2)
+			sum += frame.getShort(ip + i) & 0xFFFF;
+		sum = (sum & 0xFFFF) + (sum >>> 16);
+		sum += sum >>> 16;
+		frame.putShort(ip + 10, (short) ~sum);
+		return ip + IP_LENGTH;
+	}
+
+	private static void writeUdp(ByteBuffer frame, int udp, int sourcePort, int destinationPort, int payloadLength) {
+		frame.putShort(udp, (short) sourcePort);
+		frame.putShort(udp + 2, (short) destinationPort);
+		frame.putShort(udp + 4, (short) (UDP_LENGTH + payloadLength));
+		frame.putShort(udp + 6, (short) 0);
+	}
+
+	private static void fill(byte[] dst, int offset, int length, Random r) {
+		for(int i = 0; i < length; i += 4) {
+			int value = r.nextInt();
+			for(int j = 0; j < 4 && i + j < length; j++, value >>= 8)
+				dst[offset + i + j] = (byte) value;
+		}
+	}
+}
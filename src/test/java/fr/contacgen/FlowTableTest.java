@@ -0,0 +1,128 @@
+package fr.contacgen;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class FlowTableTest extends TestCase {
+	private static final int CLIENT = 0x0A000001, SERVER = 0x0A000002, OTHER = 0x0A000003;
+	private static final long START = 1700000000000000L;
+
+	private final Packets packets = new Packets();
+	private final List<String> flows = new ArrayList<>();
+	private FlowTable table;
+
+	@Override
+	protected void setUp() {
+		// 15 s idle and 1800 s active timeouts, like the defaults of the generator
+		table = new FlowTable(15000000L, 1800000000L).stream((FlowData flow) -> {
+			flows.add(flow.getSrcIP() + ":" + flow.getSrcPort() + " > " + flow.getDstIP() + ":" + flow.getDstPort()
+					+ " " + flow.getFwdPackets() + "/" + flow.getBwdPackets()
+					+ " " + flow.getFwdBytes() + "/" + flow.getBwdBytes() + " " + flow.getDuration());
+			return true;
+		});
+	}
+
+	public void testBothDirectionsMakeOneFlow() {
+		table.add(packets.packet(Packets.tcp(CLIENT, 40000, SERVER, 22, FlowTable.SYN, 0), START));
+		table.add(packets.packet(Packets.tcp(SERVER, 22, CLIENT, 40000, FlowTable.SYN | FlowTable.ACK, 0), START + 100));
+		table.add(packets.packet(Packets.tcp(CLIENT, 40000, SERVER, 22, FlowTable.ACK, 10), START + 300));
+		assertEquals(1, table.getActive());
+		assertTrue(table.flush());
+		assertEquals(1, flows.size());
+		assertEquals("10.0.0.1:40000 > 10.0.0.2:22 2/1 90/40 300", flows.get(0));
+	}
+
+	public void testFlowStatistics() {
+		int[] syn = new int[1], ack = new int[1];
+		double[] iat = new double[3];
+		table.stream((FlowData flow) -> {
+			syn[0] = flow.getFlagCount(FlowTable.SYN);
+			ack[0] = flow.getFlagCount(FlowTable.ACK);
+			iat[0] = flow.getIatMean();
+			iat[1] = flow.getIatMin();
+			iat[2] = flow.getIatMax();
+			assertEquals(6, flow.getTransport());
+			assertEquals(50.0, flow.getFwdLengthMean(), 1e-9);
+			assertEquals(10.0, flow.getFwdLengthStd(), 1e-9);
+			return true;
+		});
+		table.add(packets.packet(Packets.tcp(CLIENT, 40000, SERVER, 22, FlowTable.SYN, 0), START));
+		table.add(packets.packet(Packets.tcp(CLIENT, 40000, SERVER, 22, FlowTable.ACK, 10), START + 100));
+		table.add(packets.packet(Packets.tcp(CLIENT, 40000, SERVER, 22, FlowTable.ACK, 20), START + 400));
+		table.flush();
+		assertEquals(1, syn[0]);
+		assertEquals(2, ack[0]);
+		assertEquals(200.0, iat[0], 1e-9);
+		assertEquals(100.0, iat[1], 1e-9);
+		assertEquals(300.0, iat[2], 1e-9);
+	}
+
+	public void testIdleTimeoutEndsTheFlow() {
+		table.add(packets.packet(Packets.udp(CLIENT, 5000, SERVER, 53, 10), START));
+		table.add(packets.packet(Packets.udp(CLIENT, 5000, SERVER, 53, 10), START + 20000000L));
+		assertEquals(1, flows.size());
+		assertEquals("10.0.0.1:5000 > 10.0.0.2:53 1/0 38/0 0", flows.get(0));
+		table.flush();
+		assertEquals(2, flows.size());
+	}
+
+	public void testActiveTimeoutSplitsTheFlow() {
+		table = new FlowTable(15000000L, 2000000L).stream((FlowData flow) -> flows.add(flow.getFwdPackets() + ""));
+		for(int i = 0; i < 5; i++)
+			table.add(packets.packet(Packets.udp(CLIENT, 5000, SERVER, 53, 10), START + i * 1000000L));
+		table.flush();
+		assertEquals(2, flows.size());
+		assertEquals("3", flows.get(0));
+		assertEquals("2", flows.get(1));
+	}
+
+	public void testFlushEndsFlowsInStartOrder() {
+		table.add(packets.packet(Packets.udp(OTHER, 7000, SERVER, 53, 0), START + 10));
+		table.add(packets.packet(Packets.udp(CLIENT, 6000, SERVER, 53, 0), START + 20));
+		table.add(packets.packet(Packets.udp(OTHER, 7000, SERVER, 53, 0), START + 30));
+		table.add(packets.packet(Packets.udp(CLIENT, 5000, SERVER, 53, 0), START + 40));
+		assertEquals(3, table.getActive());
+		table.flush();
+		assertEquals(3, flows.size());
+		assertTrue(flows.get(0).startsWith("10.0.0.3:7000"));
+		assertTrue(flows.get(1).startsWith("10.0.0.1:6000"));
+		assertTrue(flows.get(2).startsWith("10.0.0.1:5000"));
+		assertEquals(0, table.getActive());
+	}
+
+	public void testLateContainerFlowsExpire() {
+		// A container whose clock is ahead, the packets of the others keep coming behind it
+		table.add(packets.packet(Packets.udp(OTHER, 7000, SERVER, 53, 0), START + 3600000000L));
+		for(int i = 0; i < 70000; i++)
+			table.add(packets.packet(Packets.udp(CLIENT, 5000 + i % 2, SERVER, 53, 0), START + i));
+		assertTrue(flows.size() >= 2);
+		assertTrue(table.getActive() <= 3);
+	}
+
+	public void testEndedFlowsForgetTheirAddresses() {
+		for(int i = 0; i < 100; i++)
+			table.add(packets.packet(Packets.udp(CLIENT + i, 5000, SERVER, 53, 0), START + i * 20000000L));
+		table.flush();
+		assertEquals(100, flows.size());
+		for(int i = 0; i < 100; i++)
+			assertTrue(flows.get(i).startsWith("10.0.0." + (1 + i) + ":5000 > 10.0.0.2:53"));
+	}
+
+	public void testSinkStopsTheAggregation() {
+		table.stream((FlowData flow) -> false);
+		table.add(packets.packet(Packets.udp(CLIENT, 5000, SERVER, 53, 0), START));
+		assertFalse(table.add(packets.packet(Packets.udp(CLIENT, 5000, SERVER, 53, 0), START + 20000000L)));
+		assertFalse(table.add(packets.packet(Packets.udp(CLIENT, 5001, SERVER, 53, 0), START + 20000001L)));
+	}
+
+	public void testRejectsInvalidTimeouts() {
+		try {
+			new FlowTable(0, 1);
+			fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+}
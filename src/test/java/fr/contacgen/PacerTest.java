@@ -0,0 +1,76 @@
+package fr.contacgen;
+
+import junit.framework.TestCase;
+
+public class PacerTest extends TestCase {
+
+	public void testScheduleFollowsTheRate() throws InterruptedException {
+		Pacer pacer = Pacer.parse("1kpps");
+		for(int i = 0; i < 100; i++)
+			assertEquals(i * 1000000L, pacer.schedule(100));
+	}
+
+	public void testBurstIsSentBackToBack() throws InterruptedException {
+		Pacer pacer = new Pacer(100, Pacer.Unit.PACKETS).setBurst(10);
+		for(int i = 0; i < 10; i++)
+			assertEquals(0, pacer.schedule(1));
+		assertEquals(10000000.0, pacer.schedule(1), 1000);
+	}
+
+	public void testBytesAreCountedOnThePackets() throws InterruptedException {
+		Pacer pacer = Pacer.parse("1MBps").setBurst(1000);
+		assertEquals(0, pacer.schedule(1000));
+		assertEquals(1000000L, pacer.schedule(1000));
+		assertEquals(3000000L, pacer.schedule(2000));
+	}
+
+	public void testOnOffPausesTheRate() throws InterruptedException {
+		Pacer pacer = Pacer.parse("1000pps").setProfile(Pacer.Profile.parse("onoff:1:1"));
+		long last = 0;
+		for(int i = 0; i <= 1001; i++)
+			last = pacer.schedule(1);
+		// The packets after the first second wait for the end of the pause
+		assertTrue(last >= 2000000000L);
+		assertTrue(last < 2010000000L);
+	}
+
+	public void testRampStartsSlowly() throws InterruptedException {
+		Pacer pacer = Pacer.parse("1000pps").setProfile(Pacer.Profile.parse("ramp:10"));
+		pacer.schedule(1);
+		assertTrue(pacer.schedule(1) > 10000000L);
+	}
+
+	public void testRejectsInvalidRates() {
+		for(String rate : new String[] {"0pps", "-5", "fast"}) {
+			try {
+				Pacer.parse(rate);
+				fail("Expected " + rate + " to be rejected");
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+		}
+	}
+
+	public void testRejectsProfilesThatNeverSend() {
+		for(String profile : new String[] {"onoff:0:1", "onoff:0:0", "onoff:1:-1", "ramp:0", "pulse"}) {
+			try {
+				Pacer.Profile.parse(profile);
+				fail("Expected " + profile + " to be rejected");
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+		}
+	}
+
+	public void testPausedScheduleCanBeInterrupted() throws InterruptedException {
+		Pacer pacer = new Pacer(1000, Pacer.Unit.PACKETS).setProfile((long elapsed) -> 0);
+		pacer.schedule(1);
+		Thread.currentThread().interrupt();
+		try {
+			pacer.schedule(1);
+			fail("Expected an InterruptedException");
+		} catch (InterruptedException e) {
+			assertFalse(Thread.currentThread().isInterrupted());
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package fr.contacgen;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+/**
+ * Builds the Ethernet frames, records and capture files the tests read.
+ */
+class Packets {
+	static final int ICMP = 1, TCP = 6, UDP = 17;
+	static final int SYN = 0x02, ACK = 0x10;
+
+	private final PacketTable table = new PacketTable();
+	private final PcapRecord record = new PcapRecord();
+
+	/**
+	 * @return a frame carrying an IPv4 UDP packet with a zero filled payload
+	 */
+	static byte[] udp(int source, int sourcePort, int destination, int destinationPort, int payload) {
+		ByteBuffer frame = ip(UDP, source, destination, 8 + payload);
+		frame.putShort((short) sourcePort).putShort((short) destinationPort).putShort((short) (8 + payload)).putShort((short) 0);
+		return frame.array();
+	}
+
+	/**
+	 * @return a frame carrying an IPv4 TCP segment with the given flags and a zero filled payload
+	 */
+	static byte[] tcp(int source, int sourcePort, int destination, int destinationPort, int flags, int payload) {
+		ByteBuffer frame = ip(TCP, source, destination, 20 + payload);
+		frame.putShort((short) sourcePort).putShort((short) destinationPort).putInt(0).putInt(0);
+		frame.put((byte) 0x50).put((byte) flags).putShort((short) 1024).putShort((short) 0).putShort((short) 0);
+		return frame.array();
+	}
+
+	/**
+	 * @return a frame carrying an IPv4 ICMP message with the given type and code
+	 */
+	static byte[] icmp(int source, int destination, int type, int code) {
+		ByteBuffer frame = ip(ICMP, source, destination, 8);
+		frame.put((byte) type).put((byte) code);
+		return frame.array();
+	}
+
+	/**
+	 * @return the frame with the IPv4 fragment offset set, in 8 bytes units
+	 */
+	static byte[] fragment(byte[] frame, int offset) {
+		ByteBuffer.wrap(frame).putShort(14 + 6, (short) offset);
+		return frame;
+	}
+
+	private static ByteBuffer ip(int protocol, int source, int destination, int length) {
+		ByteBuffer frame = ByteBuffer.allocate(14 + 20 + length);
+		frame.position(12);
+		frame.putShort((short) 0x0800);
+		frame.put((byte) 0x45).put((byte) 0).putShort((short) (20 + length)).putShort((short) 1).putShort((short) 0);
+		frame.put((byte) 64).put((byte) protocol).putShort((short) 0).putInt(source).putInt(destination);
+		return frame;
+	}
+
+	/**
+	 * @return the decoded record of a frame
+	 */
+	PcapRecord record(byte[] frame, long timestamp) {
+		record.set(ByteBuffer.wrap(frame), 0, frame.length, frame.length, PcapRecord.LINKTYPE_ETHERNET, timestamp);
+		return record;
+	}
+
+	/**
+	 * @return a packet holding the frame, valid until the next one
+	 */
+	PacketData packet(byte[] frame, long timestamp) {
+		table.clear();
+		int row = table.add(record(frame, timestamp), timestamp / 1000);
+		return new PacketData(table).at(row);
+	}
+
+	/**
+	 * Writes a classic pcap file, big endian with microsecond timestamps.
+	 */
+	static void writePcap(File file, List<byte[]> frames, long[] timestamps) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+			out.writeInt(0xA1B2C3D4);
+			out.writeShort(2);
+			out.writeShort(4);
+			out.writeInt(0);
+			out.writeInt(0);
+			out.writeInt(65535);
+			out.writeInt(PcapRecord.LINKTYPE_ETHERNET);
+			for(int i = 0; i < frames.size(); i++) {
+				byte[] frame = frames.get(i);
+				out.writeInt((int) (timestamps[i] / 1000000));
+				out.writeInt((int) (timestamps[i] % 1000000));
+				out.writeInt(frame.length);
+				out.writeInt(frame.length);
+				out.write(frame);
+			}
+		}
+	}
+
+	/**
+	 * Builds a pcapng section with one Ethernet interface and an enhanced packet block per frame.
+	 *
+	 * @param resolution the if_tsresol option of the interface, negative to leave it out
+	 * @param offset the if_tsoffset option of the interface in seconds, 0 to leave it out
+	 * @param times the timestamps of the frames, in units of the resolution
+	 */
+	static byte[] pcapng(ByteOrder order, int resolution, long offset, List<byte[]> frames, long[] times) {
+		int length = 28 + 24 + (resolution >= 0 ? 8 : 0) + (offset != 0 ? 12 : 0);
+		for(byte[] frame : frames)
+			length += 32 + (frame.length + 3 & ~3);
+		ByteBuffer out = ByteBuffer.allocate(length).order(order);
+
+		out.putInt(PcapngReader.SECTION_HEADER).putInt(28).putInt(0x1A2B3C4D).putShort((short) 1).putShort((short) 0).putLong(-1).putInt(28);
+
+		int interfaceLength = 24 + (resolution >= 0 ? 8 : 0) + (offset != 0 ? 12 : 0);
+		out.putInt(1).putInt(interfaceLength).putShort((short) PcapRecord.LINKTYPE_ETHERNET).putShort((short) 0).putInt(65535);
+		if(resolution >= 0)
+			out.putShort((short) 9).putShort((short) 1).put((byte) resolution).put(new byte[3]);
+		if(offset != 0)
+			out.putShort((short) 14).putShort((short) 8).putLong(offset);
+		out.putInt(0).putInt(interfaceLength);
+
+		for(int i = 0; i < frames.size(); i++) {
+			byte[] frame = frames.get(i);
+			int blockLength = 32 + (frame.length + 3 & ~3);
+			out.putInt(6).putInt(blockLength).putInt(0).putInt((int) (times[i] >>> 32)).putInt((int) times[i]);
+			out.putInt(frame.length).putInt(frame.length).put(frame).put(new byte[blockLength - 32 - frame.length]);
+			out.putInt(blockLength);
+		}
+		return out.array();
+	}
+}
@@ -0,0 +1,85 @@
+package fr.contacgen;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class PayloadFeaturesTest extends TestCase {
+
+	private static double[] compute(String spec, byte[] payload) {
+		PayloadFeatures features = PayloadFeatures.parse(spec);
+		// The features are written after the other attributes of the row
+		double[] values = new double[2 + features.getNames().size()];
+		features.compute(payload, 0, payload.length, values, 2);
+		return values;
+	}
+
+	public void testNamesFollowTheValues() {
+		PayloadFeatures features = PayloadFeatures.parse("entropy, printable, bytes:2, ngrams:2:3");
+		assertEquals("[entropy, printableRatio, byte0, byte1, ngram0, ngram1, ngram2]", features.getNames().toString());
+		assertTrue(features.isSparse());
+		assertFalse(PayloadFeatures.parse("bytes:4").isSparse());
+		assertEquals(4, PayloadFeatures.parse("bytes:4").getLimit());
+		assertEquals(Integer.MAX_VALUE, PayloadFeatures.parse("bytes:4,entropy").getLimit());
+	}
+
+	public void testEntropy() {
+		assertEquals(0.0, compute("entropy", new byte[] {7, 7, 7, 7})[2], 1e-9);
+		assertEquals(1.0, compute("entropy", new byte[] {0, 1, 0, 1})[2], 1e-9);
+		byte[] all = new byte[256];
+		for(int i = 0; i < all.length; i++)
+			all[i] = (byte) i;
+		assertEquals(8.0, compute("entropy", all)[2], 1e-9);
+		assertEquals(0.0, compute("entropy", new byte[0])[2], 1e-9);
+	}
+
+	public void testHistogramAndPrintableRatio() {
+		double[] values = compute("histogram,printable", "aab\0".getBytes(StandardCharsets.US_ASCII));
+		assertEquals(0.5, values[2 + 'a'], 1e-9);
+		assertEquals(0.25, values[2 + 'b'], 1e-9);
+		assertEquals(0.25, values[2], 1e-9);
+		assertEquals(0.75, values[2 + 256], 1e-9);
+	}
+
+	public void testFirstBytesArePaddedWithMissingValues() {
+		double[] values = compute("bytes:4", new byte[] {1, (byte) 0xFF});
+		assertEquals(1.0, values[2]);
+		assertEquals(255.0, values[3]);
+		assertTrue(Double.isNaN(values[4]));
+		assertTrue(Double.isNaN(values[5]));
+	}
+
+	public void testNgramsAreCountedInBuckets() {
+		double[] values = compute("ngrams:2:8", new byte[] {1, 2, 1, 2, 1});
+		// 1 2, 2 1, 1 2, 2 1: four bigrams, two distinct ones
+		double total = 0;
+		int used = 0;
+		for(int i = 2; i < values.length; i++) {
+			total += values[i];
+			if(values[i] != 0) used++;
+		}
+		assertEquals(4.0, total);
+		assertTrue(used == 1 || used == 2);
+		for(int i = 2; i < values.length; i++)
+			assertTrue(values[i] == 0 || values[i] == 2 || values[i] == 4);
+
+		// Buckets left from a previous row are reset
+		PayloadFeatures features = PayloadFeatures.parse("ngrams:2:8");
+		Arrays.fill(values, 9);
+		features.compute(new byte[] {1}, 0, 1, values, 2);
+		for(int i = 2; i < values.length; i++)
+			assertEquals(0.0, values[i]);
+	}
+
+	public void testRejectsInvalidFeatures() {
+		for(String spec : new String[] {"colors", "bytes", "bytes:0", "ngrams:2", "ngrams:a:4"}) {
+			try {
+				PayloadFeatures.parse(spec);
+				fail("Expected " + spec + " to be rejected");
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+		}
+	}
+}
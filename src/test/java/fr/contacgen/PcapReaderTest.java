@@ -0,0 +1,121 @@
+package fr.contacgen;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class PcapReaderTest extends TestCase {
+	private static final int PACKETS = 5000;
+
+	private File capture;
+
+	@Override
+	protected void setUp() throws Exception {
+		capture = File.createTempFile("reader", ".pcap");
+		List<byte[]> frames = new ArrayList<>();
+		long[] timestamps = new long[PACKETS];
+		for(int i = 0; i < PACKETS; i++) {
+			frames.add(Packets.udp(0x0A000001, 1000 + i, 0x0A000002, 80, i % 300));
+			timestamps[i] = 1700000000000000L + i * 250L;
+		}
+		Packets.writePcap(capture, frames, timestamps);
+	}
+
+	@Override
+	protected void tearDown() {
+		capture.delete();
+	}
+
+	/**
+	 * Keeps what identifies each record read.
+	 */
+	private static class Recorder implements PcapReader.RecordHandler {
+		final List<String> records = new ArrayList<>();
+		int limit = Integer.MAX_VALUE;
+
+		@Override
+		public boolean nextRecord(PcapRecord record) {
+			records.add(record.getTimestamp() + " " + record.getSourceIP() + " " + record.getTotalLength());
+			return records.size() < limit;
+		}
+	}
+
+	public void testReadsEveryRecordInOrder() throws IOException {
+		Recorder recorder = new Recorder();
+		PcapReader.read(capture, recorder);
+		assertEquals(PACKETS, recorder.records.size());
+		assertEquals("1700000000000000 10.0.0.1 28", recorder.records.get(0));
+		assertEquals((1700000000000000L + 4999 * 250L) + " 10.0.0.1 " + (28 + 4999 % 300), recorder.records.get(4999));
+	}
+
+	public void testHandlerStopsTheRead() throws IOException {
+		Recorder recorder = new Recorder();
+		recorder.limit = 10;
+		PcapReader.read(capture, recorder);
+		assertEquals(10, recorder.records.size());
+	}
+
+	public void testStreamReadsLikeTheFile() throws IOException {
+		Recorder file = new Recorder(), stream = new Recorder();
+		PcapReader.read(capture, file);
+		try (InputStream in = new FileInputStream(capture)) {
+			PcapReader.read(in, stream);
+		}
+		assertEquals(file.records, stream.records);
+	}
+
+	public void testTruncatedRecordEndsTheCapture() throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(capture, "rw")) {
+			file.setLength(file.length() - 5);
+		}
+		Recorder recorder = new Recorder();
+		PcapReader.read(capture, recorder);
+		assertEquals(PACKETS - 1, recorder.records.size());
+	}
+
+	public void testStreamRejectsRecordsLongerThanTheSnapshot() throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(capture, "rw")) {
+			// Captured length of the first record
+			file.seek(32);
+			file.writeInt(1 << 30);
+		}
+		try (InputStream in = new FileInputStream(capture)) {
+			PcapReader.read(in, new Recorder());
+			fail("Expected an IOException");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	public void testRejectsOtherFiles() throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(capture, "rw")) {
+			file.writeInt(0x12345678);
+		}
+		try {
+			PcapReader.read(capture, new Recorder());
+			fail("Expected an IOException");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	public void testChunksAreHandedInCaptureOrder() throws IOException {
+		Recorder sequential = new Recorder();
+		PcapReader.read(capture, sequential);
+		List<String> parallel = new ArrayList<>();
+		PcapReader.readChunks(capture, 3, Recorder::new, (Recorder chunk) -> parallel.addAll(chunk.records));
+		assertEquals(sequential.records, parallel);
+	}
+
+	public void testChunkHandlerStopsTheRead() throws IOException {
+		int[] chunks = { 0 };
+		PcapReader.readChunks(capture, 2, Recorder::new, (Recorder chunk) -> ++chunks[0] < 2);
+		assertEquals(2, chunks[0]);
+	}
+}
@@ -0,0 +1,101 @@
+package fr.contacgen;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.datagenerators.classifiers.classification.ConTackGen;
+
+public class PcapRecordTest extends TestCase {
+	private static final int CLIENT = 0x0A000001, SERVER = 0x0A000002;
+	private static final long START = 1700000000000000L;
+
+	private final Packets packets = new Packets();
+
+	public void testUDPHeader() {
+		PcapRecord record = packets.record(Packets.udp(CLIENT, 5000, SERVER, 53, 12), START);
+		assertEquals(Packets.UDP, record.getProtocol());
+		assertEquals(5000, record.getSourcePort());
+		assertEquals(53, record.getDestinationPort());
+		assertEquals(20, record.getUDPLength());
+		assertEquals(0, record.getTCPFlags());
+		assertEquals(0, record.getTCPWindow());
+		assertEquals(0, record.getICMPType());
+	}
+
+	public void testTCPHeader() {
+		PcapRecord record = packets.record(Packets.tcp(CLIENT, 40000, SERVER, 22, Packets.SYN | Packets.ACK, 0), START);
+		assertEquals(Packets.TCP, record.getProtocol());
+		assertEquals(40000, record.getSourcePort());
+		assertEquals(22, record.getDestinationPort());
+		assertEquals(Packets.SYN | Packets.ACK, record.getTCPFlags());
+		assertEquals(1024, record.getTCPWindow());
+		assertEquals(0, record.getUDPLength());
+	}
+
+	public void testICMPHeader() {
+		PcapRecord record = packets.record(Packets.icmp(CLIENT, SERVER, 8, 3), START);
+		assertEquals(8, record.getICMPType());
+		assertEquals(3, record.getICMPCode());
+		assertEquals(0, record.getSourcePort());
+		assertEquals(0, record.getDestinationPort());
+	}
+
+	public void testLaterFragmentsHaveNoTransportHeader() {
+		PcapRecord record = packets.record(Packets.fragment(Packets.udp(CLIENT, 5000, SERVER, 53, 12), 100), START);
+		assertFalse(record.isFirstFragment());
+		assertEquals(0, record.getSourcePort());
+		assertEquals(0, record.getDestinationPort());
+		assertEquals(0, record.getUDPLength());
+	}
+
+	public void testTruncatedHeaderKeepsTheCapturedFields() {
+		byte[] frame = Packets.tcp(CLIENT, 40000, SERVER, 22, Packets.SYN, 0);
+		PcapRecord record = packets.record(Arrays.copyOf(frame, 14 + 20 + 12), START);
+		assertEquals(40000, record.getSourcePort());
+		assertEquals(22, record.getDestinationPort());
+		assertEquals(0, record.getTCPFlags());
+		assertEquals(0, record.getTCPWindow());
+	}
+
+	public void testTableKeepsTheTransportFields() {
+		PacketData tcp = packets.packet(Packets.tcp(CLIENT, 40000, SERVER, 22, Packets.SYN, 0), START);
+		assertEquals(Packets.TCP, tcp.getTransport());
+		assertEquals(40000, tcp.getSrcPort());
+		assertEquals(22, tcp.getDstPort());
+		assertEquals(Packets.SYN, tcp.getTCPFlags());
+		assertEquals(1024, tcp.getTCPWindow());
+
+		PacketData icmp = packets.packet(Packets.icmp(CLIENT, SERVER, 0, 0), START);
+		assertEquals(Packets.ICMP, icmp.getTransport());
+		assertEquals(0, icmp.getICMPType());
+		PacketData udp = packets.packet(Packets.udp(CLIENT, 5000, SERVER, 53, 12), START);
+		assertEquals(20, udp.getUDPLength());
+		assertEquals(20, udp.getTransportLength());
+
+		byte[] frame = Packets.tcp(CLIENT, 40000, SERVER, 22, Packets.SYN, 0);
+		assertEquals(12, packets.packet(Arrays.copyOf(frame, 14 + 20 + 12), START).getTransportLength());
+	}
+
+	public void testGeneratorWritesMissingTransportValues() throws Exception {
+		ConTackGen generator = new ConTackGen();
+		generator.setOptions(new String[] {"-attributes", "srcPort,dstPort,tcpFlags,tcpWindow,udpLength,icmpType,icmpCode"});
+		generator.setDatasetFormat(generator.defineDataFormat());
+		Instances rows = new Instances(generator.getDatasetFormat(), 0);
+
+		byte[] truncated = Arrays.copyOf(Packets.tcp(CLIENT, 40000, SERVER, 22, Packets.SYN, 0), 14 + 20 + 12);
+		generator.handlePacket(packets.packet(Packets.udp(CLIENT, 5000, SERVER, 53, 12), START), rows);
+		generator.handlePacket(packets.packet(Packets.fragment(Packets.udp(CLIENT, 5000, SERVER, 53, 12), 100), START), rows);
+		generator.handlePacket(packets.packet(truncated, START), rows);
+		generator.handlePacket(packets.packet(Packets.icmp(CLIENT, SERVER, 8, 0), START), rows);
+
+		assertEquals("5000,53,?,?,20,?,?", rows.instance(0).toString());
+		assertEquals("?,?,?,?,?,?,?", rows.instance(1).toString());
+		assertEquals("40000,22,?,?,?,?,?", rows.instance(2).toString());
+		Instance icmp = rows.instance(3);
+		assertEquals(8.0, icmp.value(5));
+		assertEquals(0.0, icmp.value(6));
+		assertTrue(icmp.isMissing(0));
+	}
+}
@@ -0,0 +1,130 @@
+package fr.contacgen;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class PcapngReaderTest extends TestCase {
+	private static final long START = 1700000000L;
+
+	private final List<byte[]> frames = new ArrayList<>();
+	private File capture;
+
+	@Override
+	protected void setUp() throws Exception {
+		capture = File.createTempFile("reader", ".pcapng");
+		for(int i = 0; i < 1000; i++)
+			frames.add(Packets.udp(0x0A000001, 1000 + i, 0x0A000002, 80, i % 50));
+	}
+
+	@Override
+	protected void tearDown() {
+		capture.delete();
+	}
+
+	/**
+	 * @return the timestamp and total length of every record of the capture
+	 */
+	private List<String> read(byte[] content) throws IOException {
+		Files.write(capture.toPath(), content);
+		List<String> records = new ArrayList<>();
+		PcapReader.read(capture, (PcapRecord record) -> {
+			records.add(record.getTimestamp() + " " + record.getTotalLength());
+			return true;
+		});
+		return records;
+	}
+
+	private long[] times(long start, long step) {
+		long[] times = new long[frames.size()];
+		for(int i = 0; i < times.length; i++)
+			times[i] = start + i * step;
+		return times;
+	}
+
+	public void testMicrosecondsByDefault() throws IOException {
+		List<String> records = read(Packets.pcapng(ByteOrder.BIG_ENDIAN, -1, 0, frames, times(START * 1000000, 250)));
+		assertEquals(1000, records.size());
+		assertEquals(START * 1000000 + " 28", records.get(0));
+		assertEquals((START * 1000000 + 999 * 250) + " " + (28 + 999 % 50), records.get(999));
+	}
+
+	public void testLittleEndianNanoseconds() throws IOException {
+		List<String> records = read(Packets.pcapng(ByteOrder.LITTLE_ENDIAN, 9, 0, frames, times(START * 1000000000L, 250000)));
+		assertEquals(1000, records.size());
+		assertEquals(START * 1000000 + " 28", records.get(0));
+		assertEquals((START * 1000000 + 999 * 250) + " " + (28 + 999 % 50), records.get(999));
+	}
+
+	public void testPowerOfTwoResolution() throws IOException {
+		// 1/1024 s units, 512 of them are half a second
+		List<String> records = read(Packets.pcapng(ByteOrder.BIG_ENDIAN, 0x80 | 10, 0, frames, times(START * 1024, 512)));
+		assertEquals(START * 1000000 + " 28", records.get(0));
+		assertEquals((START * 1000000 + 500000) + " 29", records.get(1));
+	}
+
+	public void testTimestampOffset() throws IOException {
+		List<String> records = read(Packets.pcapng(ByteOrder.BIG_ENDIAN, 3, START, frames, times(0, 1)));
+		assertEquals(START * 1000000 + " 28", records.get(0));
+		assertEquals((START * 1000000 + 1000) + " 29", records.get(1));
+	}
+
+	public void testSectionsChangeTheByteOrder() throws IOException {
+		byte[] first = Packets.pcapng(ByteOrder.BIG_ENDIAN, -1, 0, frames, times(START * 1000000, 1));
+		byte[] second = Packets.pcapng(ByteOrder.LITTLE_ENDIAN, 9, 0, frames, times(START * 1000000000L, 1000));
+		byte[] content = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, content, first.length, second.length);
+		List<String> records = read(content);
+		assertEquals(2000, records.size());
+		assertEquals(records.subList(0, 1000), records.subList(1000, 2000));
+	}
+
+	public void testStreamAndChunksReadLikeTheFile() throws IOException {
+		byte[] content = Packets.pcapng(ByteOrder.LITTLE_ENDIAN, 9, 0, frames, times(START * 1000000000L, 250000));
+		List<String> file = read(content);
+
+		List<String> stream = new ArrayList<>();
+		PcapReader.read(new ByteArrayInputStream(content), (PcapRecord record) -> {
+			stream.add(record.getTimestamp() + " " + record.getTotalLength());
+			return true;
+		});
+		assertEquals(file, stream);
+
+		List<String> chunks = new ArrayList<>();
+		PcapReader.readChunks(capture, 3, Recorder::new, chunks::addAll);
+		assertEquals(file, chunks);
+	}
+
+	public void testRejectsUndescribedInterfaces() throws IOException {
+		byte[] content = Packets.pcapng(ByteOrder.BIG_ENDIAN, -1, 0, frames.subList(0, 1), new long[1]);
+		// Interface id of the enhanced packet block, after the 28 bytes section and 24 bytes interface
+		ByteBuffer.wrap(content).putInt(28 + 24 + 8, 1);
+		try {
+			read(content);
+			fail("Expected an IOException");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	/**
+	 * Keeps the records of a chunk.
+	 */
+	private static class Recorder extends ArrayList<String> implements PcapReader.RecordHandler {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public boolean nextRecord(PcapRecord record) {
+			add(record.getTimestamp() + " " + record.getTotalLength());
+			return true;
+		}
+	}
+}
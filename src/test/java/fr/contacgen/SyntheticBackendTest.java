@@ -0,0 +1,90 @@
+package fr.contacgen;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class SyntheticBackendTest extends TestCase {
+
+	/**
+	 * @return a line per packet of the capture
+	 */
+	private static List<String> capture(SyntheticBackend backend, long seed) throws IOException {
+		List<String> rows = new ArrayList<>();
+		ConTacGenPacketHandler handler = new ConTacGenPacketHandler().stream((PacketData packet) -> {
+			rows.add(packet.getTimestamp() + " " + packet.getSrcIP() + " " + packet.getDstIP() + " "
+					+ packet.getTotalLength() + " " + packet.isAttack());
+			return true;
+		});
+		backend.capture(handler, seed);
+		return rows;
+	}
+
+	/**
+	 * @return the number of attack packets kept by the handler
+	 */
+	private static int attacks(ConTacGenPacketHandler handler) {
+		PacketTable table = handler.getTable();
+		int attacks = 0;
+		for(int row = 0; row < table.size(); row++) {
+			if(table.isAttack(row)) attacks++;
+		}
+		return attacks;
+	}
+
+	public void testSameSeedSameCapture() throws IOException {
+		List<String> first = capture(new SyntheticBackend(3), 42);
+		assertFalse(first.isEmpty());
+		assertEquals(first, capture(new SyntheticBackend(3), 42));
+		assertFalse(first.equals(capture(new SyntheticBackend(3), 43)));
+	}
+
+	public void testAttackPacketsAreLabelled() throws IOException {
+		SyntheticBackend backend = new SyntheticBackend(5, 200, 5000);
+		backend.setAttackAmount(1000);
+		ConTacGenPacketHandler handler = new ConTacGenPacketHandler();
+		backend.capture(handler, 1);
+		assertEquals(1000, attacks(handler));
+		assertTrue(handler.getTable().size() > 1000);
+
+		// The attack starts one second into the capture
+		long start = Long.MAX_VALUE, first = Long.MAX_VALUE;
+		PacketTable table = handler.getTable();
+		for(int row = 0; row < table.size(); row++) {
+			start = Math.min(start, table.getTimestamp(row));
+			if(table.isAttack(row)) {
+				first = Math.min(first, table.getTimestamp(row));
+				assertEquals("172.17.0.1", table.getSrcIP(row));
+				assertEquals("172.17.0.2", table.getDstIP(row));
+			}
+		}
+		assertTrue(first - start >= 900000L);
+	}
+
+	public void testAttackDurationStopsTheAttack() throws IOException {
+		SyntheticBackend backend = new SyntheticBackend(5, 200, 1000);
+		backend.setAttackStart(0);
+		backend.setAttackDuration(500);
+		ConTacGenPacketHandler handler = new ConTacGenPacketHandler();
+		backend.capture(handler, 1);
+		assertEquals(500, attacks(handler));
+	}
+
+	public void testPacerTimesTheAttack() throws IOException {
+		SyntheticBackend backend = new SyntheticBackend(5, 200, 5000);
+		backend.setAttackStart(0);
+		backend.setPacer(() -> Pacer.parse("100pps"));
+		ConTacGenPacketHandler handler = new ConTacGenPacketHandler();
+		backend.capture(handler, 1);
+		assertEquals(500, attacks(handler));
+	}
+
+	public void testSinkStopsTheCapture() throws IOException {
+		int[] count = { 0 };
+		ConTacGenPacketHandler handler = new ConTacGenPacketHandler().stream((PacketData packet) -> ++count[0] < 10);
+		new SyntheticBackend(5).capture(handler, 1);
+		assertEquals(10, count[0]);
+	}
+}